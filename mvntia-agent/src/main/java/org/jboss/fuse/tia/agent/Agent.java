@@ -16,9 +16,11 @@
 package org.jboss.fuse.tia.agent;
 
 import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 public class Agent {
 
@@ -27,7 +29,7 @@ public class Agent {
     private static AgentOptions options;
 
     public static Set<String> getDisabledTests() {
-        return options.isForce()
+        return options.isForce() || isChild()
                 ? Set.of()
                 : client.disabledTests(options.getProject(), options.getDigest());
     }
@@ -36,10 +38,60 @@ public class Agent {
         client.addReport(options.getProject(), test, classes);
     }
 
+    /**
+     * Reports the classes used by this JVM, which has been started by the parent tests.
+     */
+    static void addChildReport() {
+        Set<String> classes = new TreeSet<>();
+        for (String name : AgentClassTransformer.getAllReferencedClasses()) {
+            int i = name.indexOf('$');
+            classes.add(i > 0 ? name.substring(0, i) : name);
+        }
+        for (String test : options.getParent().split(";")) {
+            client.addChildReport(options.getProject(), test, classes);
+        }
+    }
+
+    public static void addResult(String test, long duration, boolean success) {
+        client.addResult(options.getProject(), test, duration, success);
+    }
+
+    public static List<String> getTestOrder() {
+        return client.testOrder(options.getProject());
+    }
+
     public static void writeReport() {
         client.writeReport(options.getProject(), options.getDigest());
     }
 
+    /**
+     * Checks if the classes used by the tests are recorded, or if the tests are only skipped.
+     */
+    public static boolean isRecording() {
+        return !AgentOptions.MODE_SELECT.equals(options.getMode()) && !isChild();
+    }
+
+    /**
+     * Checks if the agent runs in a JVM started by tests, to which all the classes it uses are attributed.
+     */
+    public static boolean isChild() {
+        return !options.getParent().isBlank();
+    }
+
+    /**
+     * Checks if the classes used by the tests are recorded by instrumenting the classes.
+     */
+    public static boolean isInstrumenting() {
+        return AgentOptions.MODE_RECORD.equals(options.getMode());
+    }
+
+    /**
+     * Checks if the classes used by the tests are recorded from the class loading events of JFR.
+     */
+    public static boolean isStreaming() {
+        return AgentOptions.MODE_JFR.equals(options.getMode());
+    }
+
     public static void log(String level, String message) {
         client.log(options.getProject(), level, message);
     }
@@ -54,6 +106,16 @@ public class Agent {
             public void addReport(String project, String test, Collection<String> classes) {
             }
             @Override
+            public void addChildReport(String project, String test, Collection<String> classes) {
+            }
+            @Override
+            public void addResult(String project, String test, long duration, boolean success) {
+            }
+            @Override
+            public List<String> testOrder(String project) {
+                return List.of();
+            }
+            @Override
             public void writeReport(String project, String digest) {
             }
             @Override
@@ -69,7 +131,45 @@ public class Agent {
             client = new HttpClient(options.getPort());
             String reactorDeps = options.getReactorDeps();
             Set<String> deps = reactorDeps.isBlank() ? Set.of() : Set.of(reactorDeps.split(";"));
-            instrumentation.addTransformer(new AgentClassTransformer(deps));
+            if (AgentOptions.MODE_JFR.equals(options.getMode())) {
+                List<String> roots = new ArrayList<>(deps);
+                if (!options.getOutputDirs().isBlank()) {
+                    roots.addAll(List.of(options.getOutputDirs().split(";")));
+                }
+                try {
+                    JfrRecorder.install(roots);
+                } catch (Exception e) {
+                    log("warn", "Unable to record the loaded classes using JFR, the tests will not be recorded: " + e);
+                }
+            }
+            if (!isInstrumenting()) {
+                return;
+            }
+            String externalDeps = options.getExternalDeps();
+            Set<String> external = externalDeps.isBlank() ? Set.of() : Set.of(externalDeps.split(";"));
+            instrumentation.addTransformer(new AgentClassTransformer(deps, external));
+            if (!options.getBasedir().isBlank()) {
+                String outputDirs = options.getOutputDirs();
+                List<String> roots = new ArrayList<>(deps);
+                if (!outputDirs.isBlank()) {
+                    roots.addAll(0, List.of(outputDirs.split(";")));
+                }
+                try {
+                    ResourceTracker.install(instrumentation, options.getBasedir(), options.getBuildDir(), roots);
+                } catch (Exception e) {
+                    log("warn", "Unable to track the resources read by the tests: " + e);
+                }
+            }
+            if (options.isPropagate()) {
+                try {
+                    ProcessTracker.install(instrumentation, options);
+                } catch (Exception e) {
+                    log("warn", "Unable to propagate the agent to the started processes: " + e);
+                }
+            }
+            if (isChild()) {
+                Runtime.getRuntime().addShutdownHook(new Thread(Agent::addChildReport, "mvntia-child"));
+            }
         } catch (Throwable t) {
             t.printStackTrace();
             throw t;
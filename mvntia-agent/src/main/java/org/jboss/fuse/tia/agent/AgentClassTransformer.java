@@ -21,9 +21,14 @@ import java.io.StringWriter;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,69 +50,200 @@ public class AgentClassTransformer implements ClassFileTransformer {
     private static final Logger LOGGER = Logger.getLogger(AgentClassTransformer.class.getName());
 
     /**
-     * Structure to store the list of referenced classes
+     * Prefix of the locations of the external dependencies in the referenced classes
      */
-    private static Set<String> referencedClasses = new LinkedHashSet<>();
+    public static final String DEPENDENCY_PREFIX = "@";
+
+    /**
+     * Prefix of the names of the resources in the referenced classes
+     */
+    public static final String RESOURCE_PREFIX = "/";
+
+    /**
+     * The references of a test class.
+     */
+    public static final class Context {
+        final String test;
+        final Set<String> referenced = ConcurrentHashMap.newKeySet();
+        volatile boolean closed;
+
+        Context(String test) {
+            this.test = test;
+        }
+    }
+
+    /**
+     * Structure to store the references which cannot be attributed to a test class
+     */
+    private static volatile Set<String> referencedClasses = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The test classes being executed
+     */
+    private static final Map<String, Context> CONTEXTS = new ConcurrentHashMap<>();
+
+    /**
+     * The test class executed by the current thread, inherited by the threads it starts
+     */
+    private static final InheritableThreadLocal<Context> CURRENT = new InheritableThreadLocal<>();
 
     private static String CLASS_EXTENSION = ".class";
 
     final Set<String> reactorDeps;
+    final Set<String> externalDeps;
 
     public AgentClassTransformer(Set<String> reactorDeps) {
+        this(reactorDeps, Set.of());
+    }
+
+    public AgentClassTransformer(Set<String> reactorDeps, Set<String> externalDeps) {
         this.reactorDeps = reactorDeps;
+        this.externalDeps = externalDeps;
     }
 
     /**
-     * Cleans the list of referenced classes. It is needed for clean the list of
-     * referenced classes between tests.
+     * Cleans the list of referenced classes which have not been attributed to a test class.
      */
-    public static synchronized void cleanUp() {
-        referencedClasses = new LinkedHashSet<>();
+    public static void cleanUp() {
+        referencedClasses = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Starts recording the references of the given test class.
+     */
+    public static void start(String test) {
+        CONTEXTS.computeIfAbsent(test, t -> new Context(t));
+    }
+
+    /**
+     * Attributes the references made by the current thread, and the threads it
+     * starts, to the given test class.
+     *
+     * @return the previous context of the thread, to be given to {@link #exit(Context)}
+     */
+    public static Context enter(String test) {
+        Context previous = CURRENT.get();
+        CURRENT.set(CONTEXTS.computeIfAbsent(test, t -> new Context(t)));
+        return previous;
+    }
+
+    public static void exit(Context previous) {
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
     }
 
     /**
      * Stores a new reference. It is called by the application constructors.
+     * The reference is attributed to the test class executed by the current
+     * thread, or else to all the test classes being executed.
      *
      * @param name full class name to store
      */
-    public static synchronized void add(String name) {
-        referencedClasses.add(name);
+    public static void add(String name) {
+        Context context = CURRENT.get();
+        if (context != null && !context.closed) {
+            add(context.referenced, name);
+        } else if (CONTEXTS.isEmpty()) {
+            add(referencedClasses, name);
+        } else {
+            for (Context c : CONTEXTS.values()) {
+                add(c.referenced, name);
+            }
+        }
+    }
+
+    // avoid locking when the reference is already known, which is the common case
+    private static void add(Set<String> referenced, String name) {
+        if (!referenced.contains(name)) {
+            referenced.add(name);
+        }
+    }
+
+    /**
+     * Stores a reference to a resource. It is called by the {@link ResourceTracker}.
+     *
+     * @param name name of the resource
+     */
+    public static void addResource(String name) {
+        add(RESOURCE_PREFIX + name);
     }
 
     /**
-     * @return the list of referenced classes during a program/test execution, which has been
-     * resolved by instrumentation techniques
+     * Stops recording the references of the given test class.
+     *
+     * @return the list of referenced classes during the execution of the test class, including
+     * the ones which could not be attributed to a test class, followed by the locations of the
+     * referenced external dependencies prefixed with {@link #DEPENDENCY_PREFIX} and the names
+     * of the resources read prefixed with {@link #RESOURCE_PREFIX}
      */
-    public static synchronized Set<String> getReferencedClasses() {
-        return referencedClasses;
+    public static Set<String> getReferencedClasses(String test) {
+        Set<String> classes = new LinkedHashSet<>();
+        Context context = CONTEXTS.remove(test);
+        if (context != null) {
+            context.closed = true;
+            classes.addAll(context.referenced);
+        }
+        Set<String> unattributed = referencedClasses;
+        cleanUp();
+        classes.addAll(unattributed);
+        return classes;
+    }
+
+    /**
+     * Returns all the references recorded, whether they have been attributed to a test class or not.
+     */
+    public static Set<String> getAllReferencedClasses() {
+        Set<String> classes = new LinkedHashSet<>(referencedClasses);
+        for (Context context : CONTEXTS.values()) {
+            classes.addAll(context.referenced);
+        }
+        return classes;
+    }
+
+    /**
+     * Returns the test classes to which the references made by the current thread are attributed.
+     */
+    public static Collection<String> getCurrentTests() {
+        Context context = CURRENT.get();
+        if (context != null && !context.closed) {
+            return List.of(context.test);
+        }
+        return new ArrayList<>(CONTEXTS.keySet());
     }
 
     static byte[] instrumentClassWithStaticStmt(String className, String instrumentationInstruction)
             throws CannotCompileException, NotFoundException, IOException {
         ClassPool pool = ClassPool.getDefault();
         CtClass clazz = pool.get(className);
+        try {
+            if (clazz.isFrozen()) {
+                return clazz.toBytecode();
+            }
 
-        if (clazz.isFrozen()) {
-            return clazz.toBytecode();
-        }
-
-        for (CtConstructor ctConstructor : clazz.getConstructors()) {
-            ctConstructor.insertAfter(instrumentationInstruction);
-        }
+            for (CtConstructor ctConstructor : clazz.getConstructors()) {
+                ctConstructor.insertAfter(instrumentationInstruction);
+            }
 
-        CtMethod[] methods = clazz.getDeclaredMethods();
-        if (methods != null) {
-            for (CtMethod ctMethod : clazz.getDeclaredMethods()) {
-                if (Modifier.isStatic(ctMethod.getModifiers())) {
-                    ctMethod.insertAfter(instrumentationInstruction, true);
+            CtMethod[] methods = clazz.getDeclaredMethods();
+            if (methods != null) {
+                for (CtMethod ctMethod : clazz.getDeclaredMethods()) {
+                    if (Modifier.isStatic(ctMethod.getModifiers())) {
+                        ctMethod.insertAfter(instrumentationInstruction, true);
+                    }
                 }
             }
-        }
 
-        CtConstructor constructor = clazz.makeClassInitializer();
-        constructor.insertBefore(instrumentationInstruction);
+            CtConstructor constructor = clazz.makeClassInitializer();
+            constructor.insertBefore(instrumentationInstruction);
 
-        return clazz.toBytecode();
+            return clazz.toBytecode();
+        } finally {
+            // the class is not needed anymore, do not keep it in the pool
+            clazz.detach();
+        }
     }
 
     @Override
@@ -124,6 +260,11 @@ public class AgentClassTransformer implements ClassFileTransformer {
             if (!isGeneratedClass(normalizedName)) {
                 return instrumentClass(normalizedName, classfileBuffer);
             }
+        } else if (className != null && location != null && externalDeps.contains(location)) {
+            String normalizedName = normalizeName(className);
+            if (!isGeneratedClass(normalizedName)) {
+                return instrumentDependencyClass(normalizedName, location, classfileBuffer);
+            }
         }
 
         return classfileBuffer;
@@ -162,6 +303,30 @@ public class AgentClassTransformer implements ClassFileTransformer {
         return classfileBuffer;
     }
 
+    /**
+     * Modifies the class constructors to report which is the loaded dependency.
+     * The dependency is reported on each use and not only when the class is loaded,
+     * as the class may have been loaded by a previous test class run in the same fork.
+     * Failures are only logged at debug level, as libraries may contain classes
+     * which cannot be instrumented.
+     *
+     * @param name            of the class to instrument
+     * @param location        of the dependency jar
+     * @param classfileBuffer the current binary representation to return
+     *                        in case of modification exceptions
+     * @return modified class bytecode
+     */
+    protected byte[] instrumentDependencyClass(String name, String location, byte[] classfileBuffer) {
+        try {
+            return instrumentClassWithStaticStmt(name,
+                    AgentClassTransformer.class.getName()
+                            + ".add(\"" + DEPENDENCY_PREFIX + location.replace("\\", "\\\\").replace("\"", "\\\"") + "\");");
+        } catch (Throwable e) {
+            Agent.log("debug", "Error instrumenting " + name + " from " + location + ": " + e);
+        }
+        return classfileBuffer;
+    }
+
     private String normalizeName(String className) {
         String aux = className.replaceAll("/", "\\.");
         if (aux.endsWith(CLASS_EXTENSION)) {
@@ -50,7 +50,44 @@ public class AgentOptions {
 
     public static final String REACTOR_DEPS = "reactorDeps";
 
-    private static final Collection<String> VALID_OPTIONS = Arrays.asList(DIGEST, FORCE, PORT, PROJECT, REACTOR_DEPS);
+    public static final String EXTERNAL_DEPS = "externalDeps";
+
+    public static final String BASEDIR = "basedir";
+
+    public static final String BUILD_DIR = "buildDir";
+
+    public static final String OUTPUT_DIRS = "outputDirs";
+
+    public static final String MODE = "mode";
+
+    public static final String PROPAGATE = "propagate";
+
+    public static final String PARENT = "parent";
+
+    /**
+     * Skips the tests and records the classes they use.
+     */
+    public static final String MODE_RECORD = "record";
+
+    /**
+     * Only skips the tests, without any instrumentation nor recording.
+     */
+    public static final String MODE_SELECT = "select";
+
+    /**
+     * Skips the tests and reports the tests which passed, the classes they use
+     * being computed by a static analysis instead of instrumenting the classes.
+     */
+    public static final String MODE_STATIC = "static";
+
+    /**
+     * Skips the tests and records the classes they use from the class loading
+     * events of the JDK Flight Recorder, without instrumenting the classes.
+     */
+    public static final String MODE_JFR = "jfr";
+
+    private static final Collection<String> VALID_OPTIONS = Arrays.asList(DIGEST, FORCE, PORT, PROJECT, REACTOR_DEPS, EXTERNAL_DEPS,
+            BASEDIR, BUILD_DIR, OUTPUT_DIRS, MODE, PROPAGATE, PARENT);
 
     private static final Pattern OPTION_SPLIT = Pattern.compile(",(?=[a-zA-Z0-9_\\-]+=)");
 
@@ -109,6 +146,34 @@ public class AgentOptions {
         return getOption(REACTOR_DEPS, "");
     }
 
+    public String getExternalDeps() {
+        return getOption(EXTERNAL_DEPS, "");
+    }
+
+    public String getBasedir() {
+        return getOption(BASEDIR, "");
+    }
+
+    public String getBuildDir() {
+        return getOption(BUILD_DIR, "");
+    }
+
+    public String getOutputDirs() {
+        return getOption(OUTPUT_DIRS, "");
+    }
+
+    public String getMode() {
+        return getOption(MODE, MODE_RECORD);
+    }
+
+    public boolean isPropagate() {
+        return getOption(PROPAGATE, false);
+    }
+
+    public String getParent() {
+        return getOption(PARENT, "");
+    }
+
     public AgentOptions digest(final String project) {
         setOption(DIGEST, project);
         return this;
@@ -140,6 +205,60 @@ public class AgentOptions {
         return this;
     }
 
+    /**
+     * Sets the jars of the external dependencies for which the tests using
+     * them are recorded.
+     */
+    public AgentOptions externalDeps(final String externalDeps) {
+        setOption(EXTERNAL_DEPS, externalDeps);
+        return this;
+    }
+
+    /**
+     * Sets the module directory, in which the resources read by the tests are
+     * recorded.  Resources are not tracked when not set.
+     */
+    public AgentOptions basedir(final String basedir) {
+        setOption(BASEDIR, basedir);
+        return this;
+    }
+
+    public AgentOptions buildDir(final String buildDir) {
+        setOption(BUILD_DIR, buildDir);
+        return this;
+    }
+
+    public AgentOptions outputDirs(final String outputDirs) {
+        setOption(OUTPUT_DIRS, outputDirs);
+        return this;
+    }
+
+    /**
+     * Sets how the agent runs the tests, either {@link #MODE_RECORD}, {@link #MODE_SELECT},
+     * {@link #MODE_STATIC} or {@link #MODE_JFR}.
+     */
+    public AgentOptions mode(final String mode) {
+        setOption(MODE, mode);
+        return this;
+    }
+
+    /**
+     * Sets whether the agent is added to the JVMs started by the tests, so that
+     * the classes they use are attributed to the test.
+     */
+    public AgentOptions propagate(final boolean propagate) {
+        setOption(PROPAGATE, propagate);
+        return this;
+    }
+
+    /**
+     * Sets the tests, separated by <code>;</code>, which started the JVM the agent runs in.
+     */
+    public AgentOptions parent(final String parent) {
+        setOption(PARENT, parent);
+        return this;
+    }
+
     /**
      * Generate required quotes JVM argument based on current configuration and
      * prepends it to the given argument command line. If a agent with the same
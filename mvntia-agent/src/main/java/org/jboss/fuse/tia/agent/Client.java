@@ -25,6 +25,12 @@ public interface Client {
 
     void addReport(String project, String test, Collection<String> classes);
 
+    void addChildReport(String project, String test, Collection<String> classes);
+
+    void addResult(String project, String test, long duration, boolean success);
+
+    List<String> testOrder(String project);
+
     void writeReport(String project, String digest);
 
     void log(String project, String level, String message);
@@ -78,6 +78,59 @@ public class HttpClient implements Client {
         }
     }
 
+    @Override
+    public void addChildReport(String project, String test, Collection<String> classes) {
+        try {
+            JsonObject req = new JsonObject();
+            req.addProperty("request", "addChildReport");
+            req.addProperty("project", project);
+            req.addProperty("test", test);
+            req.add("classes", gson.toJsonTree(classes));
+            JsonObject rep = request(req);
+            if (rep.has("error")) {
+                throw new IOException(rep.get("error").toString());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void addResult(String project, String test, long duration, boolean success) {
+        try {
+            JsonObject req = new JsonObject();
+            req.addProperty("request", "addResult");
+            req.addProperty("project", project);
+            req.addProperty("test", test);
+            req.addProperty("duration", duration);
+            req.addProperty("success", success);
+            JsonObject rep = request(req);
+            if (rep.has("error")) {
+                throw new IOException(rep.get("error").toString());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public List<String> testOrder(String project) {
+        try {
+            JsonObject req = new JsonObject();
+            req.addProperty("request", "testOrder");
+            req.addProperty("project", project);
+            JsonObject rep = request(req);
+            if (rep.has("error")) {
+                throw new IOException(rep.get("error").toString());
+            }
+            String[] tests = gson.fromJson(rep.get("result"), String[].class);
+            return List.of(tests);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return List.of();
+        }
+    }
+
     @Override
     public void writeReport(String project, String digest) {
         try {
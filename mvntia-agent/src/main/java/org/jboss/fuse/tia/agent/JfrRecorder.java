@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records the classes loaded by the JVM using the JFR event streaming API,
+ * without instrumenting any class.  The API is only available since Java 14,
+ * so it is used by reflection.
+ *
+ * A class being loaded only once, the classes used by a test class are all the
+ * project classes loaded until it finishes, so the plugin requires each test
+ * class to run in its own fork.  The end of a test is marked by a custom event,
+ * so that all the classes loaded before are known when it is read.
+ */
+public class JfrRecorder {
+
+    static final String CLASS_LOAD = "jdk.ClassLoad";
+
+    static final String MARKER = "org.jboss.fuse.tia.TestFinished";
+
+    static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private static volatile JfrRecorder instance;
+
+    @Name(MARKER)
+    @Label("Test Finished")
+    public static class Marker extends Event {
+        @Label("Id")
+        long id;
+    }
+
+    final Set<String> tracked;
+    final Set<String> loaded = ConcurrentHashMap.newKeySet();
+    final Map<Long, Set<String>> snapshots = new ConcurrentHashMap<>();
+    final AtomicLong ids = new AtomicLong();
+
+    JfrRecorder(Set<String> tracked) {
+        this.tracked = tracked;
+    }
+
+    /**
+     * Starts recording the loaded classes found in the given directories and jars.
+     */
+    public static void install(Collection<String> roots) throws Exception {
+        JfrRecorder recorder = new JfrRecorder(index(roots));
+        recorder.start();
+        instance = recorder;
+    }
+
+    public static boolean isInstalled() {
+        return instance != null;
+    }
+
+    /**
+     * Marks the end of a test, returning the id to use with {@link #getLoadedClasses(long)}.
+     */
+    public static long mark() {
+        Marker marker = new Marker();
+        marker.id = instance.ids.incrementAndGet();
+        marker.commit();
+        return marker.id;
+    }
+
+    /**
+     * Returns the classes loaded before the given mark, waiting for the mark to be streamed.
+     */
+    public static Set<String> getLoadedClasses(long id) throws InterruptedException {
+        return instance.await(id);
+    }
+
+    void start() throws Exception {
+        Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+        Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+        Method getClass = Class.forName("jdk.jfr.consumer.RecordedObject").getMethod("getClass", String.class);
+        Method getLong = Class.forName("jdk.jfr.consumer.RecordedObject").getMethod("getLong", String.class);
+        Method getName = Class.forName("jdk.jfr.consumer.RecordedClass").getMethod("getName");
+        Method enable = streamClass.getMethod("enable", String.class);
+        Method onEvent = streamClass.getMethod("onEvent", String.class, Consumer.class);
+
+        FlightRecorder.register(Marker.class);
+        Object stream = streamClass.getConstructor().newInstance();
+        for (String event : new String[] {CLASS_LOAD, MARKER}) {
+            Object settings = enable.invoke(stream, event);
+            settings = settingsClass.getMethod("withoutThreshold").invoke(settings);
+            settingsClass.getMethod("withoutStackTrace").invoke(settings);
+        }
+        onEvent.invoke(stream, CLASS_LOAD, (Consumer<Object>) e -> {
+            try {
+                Object clazz = getClass.invoke(e, "loadedClass");
+                String name = clazz != null ? (String) getName.invoke(clazz) : null;
+                if (name != null && tracked.contains(name)) {
+                    loaded.add(name);
+                }
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        onEvent.invoke(stream, MARKER, (Consumer<Object>) e -> {
+            try {
+                long id = (Long) getLong.invoke(e, "id");
+                synchronized (this) {
+                    snapshots.put(id, new HashSet<>(loaded));
+                    notifyAll();
+                }
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        // unlike start, startAsync only returns once the recording has started,
+        // so that no class loaded after the installation is missed
+        streamClass.getMethod("startAsync").invoke(stream);
+    }
+
+    synchronized Set<String> await(long id) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        Set<String> classes;
+        while ((classes = snapshots.remove(id)) == null) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) {
+                Agent.log("warn", "Timeout waiting for the JFR events, using the classes loaded so far");
+                return new HashSet<>(loaded);
+            }
+            wait(left);
+        }
+        return classes;
+    }
+
+    /**
+     * Lists the names of the classes found in the given directories and jars.
+     */
+    static Set<String> index(Collection<String> roots) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (String root : roots) {
+            Path path = Paths.get(root);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.map(f -> path.relativize(f).toString().replace(File.separatorChar, '/'))
+                            .filter(n -> n.endsWith(".class"))
+                            .forEach(n -> names.add(toClassName(n)));
+                }
+            } else if (Files.isRegularFile(path)) {
+                try (JarFile jar = new JarFile(path.toFile())) {
+                    jar.stream()
+                            .map(JarEntry::getName)
+                            .filter(n -> n.endsWith(".class"))
+                            .forEach(n -> names.add(toClassName(n)));
+                }
+            }
+        }
+        return names;
+    }
+
+    static String toClassName(String path) {
+        return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.agent;
+
+import java.util.function.Consumer;
+
+/**
+ * Called by the {@link ProcessBuilder} instrumented by the {@link ProcessTracker}.
+ * This class is loaded by the bootstrap class loader, so that it is visible from
+ * the JDK classes, and must thus only depend on JDK classes.
+ */
+public final class ProcessHook {
+
+    /**
+     * Receives the process builders before the processes are started.
+     */
+    public static volatile Consumer<Object> listener;
+
+    private ProcessHook() {
+    }
+
+    /**
+     * Called when a process is about to be started.
+     */
+    public static void start(ProcessBuilder builder) {
+        Consumer<Object> l = listener;
+        if (l != null && builder != null) {
+            l.accept(builder);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.agent;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Adds the agent to the processes started by the tests, using the
+ * <code>JAVA_TOOL_OPTIONS</code> environment variable, so that the classes
+ * used by the JVMs they start are attributed to the tests.  The variable is
+ * inherited, so that JVMs started by scripts are covered too.
+ */
+public class ProcessTracker implements Consumer<Object>, ClassFileTransformer {
+
+    // do not use a class literal, which would load the class from the wrong class loader
+    static final String HOOK = "org.jboss.fuse.tia.agent.ProcessHook";
+
+    static final String JAVA_TOOL_OPTIONS = "JAVA_TOOL_OPTIONS";
+
+    final AgentOptions options;
+    final File agentJarFile;
+
+    ProcessTracker(AgentOptions options, File agentJarFile) {
+        this.options = options;
+        this.agentJarFile = agentJarFile;
+    }
+
+    /**
+     * Installs the hook in the bootstrap class loader and instruments the {@link ProcessBuilder}.
+     */
+    public static void install(Instrumentation instrumentation, AgentOptions options) throws Exception {
+        File jar = new File(ProcessTracker.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Class<?> hook = ResourceTracker.installHook(instrumentation, HOOK);
+        ProcessTracker tracker = new ProcessTracker(options, jar);
+        hook.getField("listener").set(null, tracker);
+        instrumentation.addTransformer(tracker, true);
+        instrumentation.retransformClasses(ProcessBuilder.class);
+    }
+
+    @Override
+    public void accept(Object builder) {
+        // a child JVM attributes the processes it starts to its own parent tests
+        Collection<String> tests = options.getParent().isBlank()
+                ? AgentClassTransformer.getCurrentTests()
+                : List.of(options.getParent().split(";"));
+        if (tests.isEmpty()) {
+            return;
+        }
+        AgentOptions child = new AgentOptions(options.toString()).parent(String.join(";", tests));
+        Map<String, String> env = ((ProcessBuilder) builder).environment();
+        List<String> args = CommandLineSupport.split(env.get(JAVA_TOOL_OPTIONS));
+        args.removeIf(s -> s.startsWith(String.format("-javaagent:%s", agentJarFile)));
+        args.add(0, child.getVMArgument(agentJarFile));
+        env.put(JAVA_TOOL_OPTIONS, CommandLineSupport.quote(args));
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (classBeingRedefined == null || !"java/lang/ProcessBuilder".equals(className)) {
+            return null;
+        }
+        try {
+            return ResourceTracker.instrument(classfileBuffer, "start", "()Ljava/lang/Process;",
+                    HOOK + ".start($0);", true);
+        } catch (Throwable t) {
+            Agent.log("warn", "Error instrumenting " + className + ", the agent will not be propagated: " + t);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.agent;
+
+import java.net.URL;
+import java.util.function.Consumer;
+
+/**
+ * Called by the JDK classes instrumented by the {@link ResourceTracker}.  This
+ * class is loaded by the bootstrap class loader, so that it is visible from
+ * the JDK classes, and must thus only depend on JDK classes.
+ */
+public final class ResourceHook {
+
+    /**
+     * Receives the names of the resources and the files which are read.
+     */
+    public static volatile Consumer<Object> listener;
+
+    private ResourceHook() {
+    }
+
+    /**
+     * Called when a resource has been found by a class loader.
+     */
+    public static void resource(String name, URL url) {
+        Consumer<Object> l = listener;
+        if (l != null && name != null && url != null && "file".equals(url.getProtocol())) {
+            l.accept(name);
+        }
+    }
+
+    /**
+     * Called when a file, either a {@link java.io.File} or a {@link java.nio.file.Path},
+     * has been opened for reading.
+     */
+    public static void file(Object file) {
+        Consumer<Object> l = listener;
+        if (l != null && file != null) {
+            l.accept(file);
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.agent;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.LoaderClassPath;
+
+/**
+ * Records the resources and the files read by the tests.  The JDK methods used
+ * to find resources and open files are instrumented to call the {@link ResourceHook},
+ * which forwards to this tracker.
+ *
+ * Resources found in a directory of the class path are recorded using their
+ * name, and other files located in the module directory, but not in the build
+ * directory, using their path relative to the module directory.
+ */
+public class ResourceTracker implements Consumer<Object>, ClassFileTransformer {
+
+    // do not use a class literal, which would load the class from the wrong class loader
+    static final String HOOK = "org.jboss.fuse.tia.agent.ResourceHook";
+
+    static final String READ_ONLY = "if (!$2.contains(java.nio.file.StandardOpenOption.WRITE)"
+            + " && !$2.contains(java.nio.file.StandardOpenOption.APPEND)) ";
+
+    final Path basedir;
+    final Path buildDir;
+    final List<Path> roots = new ArrayList<>();
+    // guards against files read while recording another one
+    final ThreadLocal<Boolean> active = new ThreadLocal<>();
+
+    ResourceTracker(String basedir, String buildDir, Collection<String> roots) {
+        this.basedir = Paths.get(basedir).toAbsolutePath().normalize();
+        this.buildDir = buildDir.isEmpty() ? null : Paths.get(buildDir).toAbsolutePath().normalize();
+        for (String root : roots) {
+            this.roots.add(Paths.get(root).toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Installs the hook in the bootstrap class loader and instruments the JDK classes.
+     *
+     * @param basedir  the module directory
+     * @param buildDir the build directory of the module
+     * @param roots    the directories of the class path
+     */
+    public static void install(Instrumentation instrumentation, String basedir, String buildDir,
+                               Collection<String> roots) throws Exception {
+        Class<?> hook = installHook(instrumentation, HOOK);
+        ResourceTracker tracker = new ResourceTracker(basedir, buildDir, roots);
+        hook.getField("listener").set(null, tracker);
+        instrumentation.addTransformer(tracker, true);
+        instrumentation.retransformClasses(ClassLoader.class, FileInputStream.class, Files.class, FileChannel.class);
+    }
+
+    /**
+     * Loads the given hook class, which must only depend on JDK classes, from the
+     * bootstrap class loader, so that it can be called by the instrumented JDK classes.
+     */
+    static Class<?> installHook(Instrumentation instrumentation, String name) throws Exception {
+        Path jar = Files.createTempFile("mvntia-hook-", ".jar");
+        jar.toFile().deleteOnExit();
+        String entry = name.replace('.', '/') + ".class";
+        try (InputStream is = ResourceTracker.class.getClassLoader().getResourceAsStream(entry);
+             JarOutputStream os = new JarOutputStream(Files.newOutputStream(jar))) {
+            os.putNextEntry(new JarEntry(entry));
+            is.transferTo(os);
+        }
+        instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(jar.toFile()));
+        Class<?> hook = Class.forName(name, true, null);
+        // the instrumented JDK classes need to read the module of the hook
+        instrumentation.redefineModule(Object.class.getModule(), Set.of(hook.getModule()),
+                Map.of(), Map.of(), Set.of(), Map.of());
+        return hook;
+    }
+
+    @Override
+    public void accept(Object resource) {
+        if (active.get() != null) {
+            return;
+        }
+        active.set(Boolean.TRUE);
+        try {
+            String name = null;
+            if (resource instanceof String) {
+                name = (String) resource;
+                name = name.startsWith("/") ? name.substring(1) : name;
+            } else {
+                Path path = resource instanceof Path ? (Path) resource : ((File) resource).toPath();
+                if (path.getFileSystem() == FileSystems.getDefault()) {
+                    name = getName(path.toAbsolutePath().normalize());
+                }
+            }
+            if (name != null && !name.isEmpty() && !name.endsWith(".class")) {
+                AgentClassTransformer.addResource(name);
+            }
+        } catch (RuntimeException e) {
+            // invalid path, ignore
+        } finally {
+            active.remove();
+        }
+    }
+
+    String getName(Path path) {
+        for (Path root : roots) {
+            if (path.startsWith(root)) {
+                return toName(root.relativize(path));
+            }
+        }
+        if (path.startsWith(basedir) && (buildDir == null || !path.startsWith(buildDir))) {
+            return toName(basedir.relativize(path));
+        }
+        return null;
+    }
+
+    static String toName(Path path) {
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (classBeingRedefined == null || className == null) {
+            return null;
+        }
+        try {
+            switch (className) {
+                case "java/lang/ClassLoader":
+                    return instrument(classfileBuffer, "getResource",
+                            "(Ljava/lang/String;)Ljava/net/URL;",
+                            HOOK + ".resource($1, $_);");
+                case "java/io/FileInputStream":
+                    return instrument(classfileBuffer, "<init>",
+                            "(Ljava/io/File;)V",
+                            HOOK + ".file($1);");
+                case "java/nio/file/Files":
+                    return instrument(classfileBuffer, "newByteChannel",
+                            "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/SeekableByteChannel;",
+                            READ_ONLY + HOOK + ".file($1);");
+                case "java/nio/channels/FileChannel":
+                    return instrument(classfileBuffer, "open",
+                            "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/FileChannel;",
+                            READ_ONLY + HOOK + ".file($1);");
+                default:
+                    return null;
+            }
+        } catch (Throwable t) {
+            Agent.log("warn", "Error instrumenting " + className + ", resources will not be tracked: " + t);
+            return null;
+        }
+    }
+
+    static byte[] instrument(byte[] classfileBuffer, String method, String descriptor, String statement) throws Exception {
+        return instrument(classfileBuffer, method, descriptor, statement, false);
+    }
+
+    static byte[] instrument(byte[] classfileBuffer, String method, String descriptor, String statement,
+                             boolean before) throws Exception {
+        ClassPool pool = new ClassPool(true);
+        pool.appendClassPath(new LoaderClassPath(ResourceTracker.class.getClassLoader()));
+        CtClass clazz = pool.makeClass(new ByteArrayInputStream(classfileBuffer));
+        CtBehavior behavior = "<init>".equals(method)
+                ? clazz.getConstructor(descriptor)
+                : clazz.getMethod(method, descriptor);
+        if (before) {
+            behavior.insertBefore(statement);
+        } else {
+            behavior.insertAfter(statement);
+        }
+        byte[] bytes = clazz.toBytecode();
+        clazz.detach();
+        return bytes;
+    }
+
+}
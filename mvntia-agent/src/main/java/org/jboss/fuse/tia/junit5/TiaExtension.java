@@ -15,15 +15,27 @@
  */
 package org.jboss.fuse.tia.junit5;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
 import java.util.Set;
 
 import org.jboss.fuse.tia.agent.Agent;
+import org.jboss.fuse.tia.agent.AgentClassTransformer;
 import org.junit.jupiter.api.extension.ConditionEvaluationResult;
 import org.junit.jupiter.api.extension.ExecutionCondition;
 import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.InvocationInterceptor;
+import org.junit.jupiter.api.extension.ReflectiveInvocationContext;
 
-public class TiaExtension implements ExecutionCondition {
+/**
+ * Disables the tests which are not impacted by the changes, and attributes the
+ * classes referenced while executing the test code to its test class, so that
+ * test classes can be run concurrently.  Only the former is done when the agent
+ * does not instrument the classes.
+ */
+public class TiaExtension implements ExecutionCondition, InvocationInterceptor {
 
+    private final boolean instrumenting = Agent.isInstrumenting();
     private volatile Set<String> disabledTests;
 
     public TiaExtension() {
@@ -53,5 +65,70 @@ public class TiaExtension implements ExecutionCondition {
         }
     }
 
+    @Override
+    public <T> T interceptTestClassConstructor(Invocation<T> invocation, ReflectiveInvocationContext<Constructor<T>> invocationContext,
+                                               ExtensionContext extensionContext) throws Throwable {
+        return intercept(invocation, extensionContext);
+    }
+
+    @Override
+    public void interceptBeforeAllMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext,
+                                         ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation, extensionContext);
+    }
+
+    @Override
+    public void interceptBeforeEachMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext,
+                                          ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation, extensionContext);
+    }
+
+    @Override
+    public void interceptTestMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext,
+                                    ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation, extensionContext);
+    }
+
+    @Override
+    public <T> T interceptTestFactoryMethod(Invocation<T> invocation, ReflectiveInvocationContext<Method> invocationContext,
+                                            ExtensionContext extensionContext) throws Throwable {
+        return intercept(invocation, extensionContext);
+    }
+
+    @Override
+    public void interceptTestTemplateMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext,
+                                            ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation, extensionContext);
+    }
+
+    @Override
+    public void interceptDynamicTest(Invocation<Void> invocation, ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation, extensionContext);
+    }
+
+    @Override
+    public void interceptAfterEachMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext,
+                                         ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation, extensionContext);
+    }
+
+    @Override
+    public void interceptAfterAllMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext,
+                                        ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation, extensionContext);
+    }
+
+    protected <T> T intercept(Invocation<T> invocation, ExtensionContext extensionContext) throws Throwable {
+        if (!instrumenting) {
+            return invocation.proceed();
+        }
+        AgentClassTransformer.Context previous = AgentClassTransformer.enter(extensionContext.getRequiredTestClass().getName());
+        try {
+            return invocation.proceed();
+        } finally {
+            AgentClassTransformer.exit(previous);
+        }
+    }
+
 
 }
@@ -16,7 +16,6 @@
 package org.jboss.fuse.tia.junit5;
 
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -24,12 +23,14 @@ import java.util.TreeSet;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.jboss.fuse.tia.agent.Agent;
 import org.jboss.fuse.tia.agent.AgentClassTransformer;
+import org.jboss.fuse.tia.agent.JfrRecorder;
 import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.engine.TestSource;
 import org.junit.platform.engine.support.descriptor.ClassSource;
@@ -45,51 +46,75 @@ public class TiaTestListener implements TestExecutionListener {
     private static final String STOP = "#-#-STOP-#-#";
 
     private final BlockingDeque<Report> reports = new LinkedBlockingDeque<>();
+    private final boolean recording;
+    private final boolean streaming;
     private final Thread runner;
     private final Map<String, TestExecutionResult.Status> results = new ConcurrentHashMap<>();
+    private final Map<String, Long> startTimes = new ConcurrentHashMap<>();
+    private final Set<String> tests = ConcurrentHashMap.newKeySet();
 
     public TiaTestListener() {
+        streaming = Agent.isStreaming();
+        // without JFR, the classes used by the tests are unknown so nothing is reported
+        // and the tests always run, instead of being recorded as using no class
+        recording = Agent.isRecording() && (!streaming || JfrRecorder.isInstalled());
         runner = new Thread(this::sendReports);
-        runner.start();
+        if (recording) {
+            runner.start();
+        }
     }
 
     @Override
     public void executionStarted(TestIdentifier testIdentifier) {
+        if (!recording) {
+            return;
+        }
         TestSource source = testIdentifier.getSource().orElse(null);
         if (source instanceof ClassSource) {
+            String test = ((ClassSource) source).getClassName();
+            startTimes.put(test, System.nanoTime());
+            tests.add(test);
+            AgentClassTransformer.start(test);
             Agent.log("debug", "executionStarted: " + testIdentifier);
         }
     }
 
     @Override
     public void executionFinished(TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+        if (!recording) {
+            return;
+        }
         TestSource source = testIdentifier.getSource().orElse(null);
         if (source instanceof MethodSource) {
             String test = ((MethodSource) source).getClassName();
             results.merge(test, testExecutionResult.getStatus(), (s1, s2) -> s1 != TestExecutionResult.Status.SUCCESSFUL ? s1 : s2);
         }
         if (source instanceof ClassSource) {
-            Set<String> classes = AgentClassTransformer.getReferencedClasses();
             String test = ((ClassSource) source).getClassName();
+            Set<String> classes = streaming ? null : AgentClassTransformer.getReferencedClasses(test);
             results.merge(test, testExecutionResult.getStatus(), (s1, s2) -> s1 != TestExecutionResult.Status.SUCCESSFUL ? s1 : s2);
-            if (results.remove(test) == TestExecutionResult.Status.SUCCESSFUL) {
-                Collection<String> names = classes.stream()
-                        .map(s -> {
-                            int i = s.indexOf('$');
-                            return i > 0 ? s.substring(0, i) : s;
-                        })
-                        .filter(s -> !test.equals(s))
-                        .collect(Collectors.toCollection(TreeSet::new));
-                addReport(test, names);
-                AgentClassTransformer.cleanUp();
+            Long start = startTimes.remove(test);
+            long duration = start != null ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) : 0;
+            boolean success = results.remove(test) == TestExecutionResult.Status.SUCCESSFUL;
+            if (success && streaming) {
+                // the classes are known once the JFR events up to this point have been streamed
+                reports.add(new Report(test, null, duration, true, JfrRecorder.mark()));
+            } else if (success) {
+                Collection<String> names = getNames(test, classes);
+                addReport(test, names, duration, true);
                 Agent.log("debug", "executionFinished: " + test + ": referenced classes: " + names);
+            } else {
+                addReport(test, null, duration, false);
             }
         }
     }
 
     @Override
     public void testPlanExecutionFinished(TestPlan testPlan) {
-        addReport(STOP, List.of());
+        if (!recording) {
+            return;
+        }
+        addReport(STOP, null, 0, false);
         try {
             runner.join();
         } catch (InterruptedException e) {
@@ -98,8 +123,18 @@ public class TiaTestListener implements TestExecutionListener {
         Agent.writeReport();
     }
 
-    private void addReport(String test, Collection<String> classes) {
-        reports.add(new Report(test, classes));
+    private void addReport(String test, Collection<String> classes, long duration, boolean success) {
+        reports.add(new Report(test, classes, duration, success, -1));
+    }
+
+    private static Collection<String> getNames(String test, Collection<String> classes) {
+        return classes.stream()
+                .map(s -> {
+                    int i = s.indexOf('$');
+                    return i > 0 ? s.substring(0, i) : s;
+                })
+                .filter(s -> !test.equals(s))
+                .collect(Collectors.toCollection(TreeSet::new));
     }
 
     private void sendReports() {
@@ -109,7 +144,17 @@ public class TiaTestListener implements TestExecutionListener {
                 if (Objects.equals(STOP, report.test)) {
                     break;
                 }
-                Agent.addReport(report.test, report.classes);
+                Collection<String> classes = report.classes;
+                if (report.marker >= 0) {
+                    // the classes loaded by the other test classes of the fork are not used by this one
+                    classes = getNames(report.test, JfrRecorder.getLoadedClasses(report.marker));
+                    classes.removeAll(tests);
+                    Agent.log("debug", "executionFinished: " + report.test + ": loaded classes: " + classes);
+                }
+                if (classes != null) {
+                    Agent.addReport(report.test, classes);
+                }
+                Agent.addResult(report.test, report.duration, report.success);
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error sending reports", e);
@@ -119,10 +164,16 @@ public class TiaTestListener implements TestExecutionListener {
     static class Report {
         final String test;
         final Collection<String> classes;
+        final long duration;
+        final boolean success;
+        final long marker;
 
-        public Report(String test, Collection<String> classes) {
+        public Report(String test, Collection<String> classes, long duration, boolean success, long marker) {
             this.test = test;
             this.classes = classes;
+            this.duration = duration;
+            this.success = success;
+            this.marker = marker;
         }
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.junit5;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.jboss.fuse.tia.agent.Agent;
+
+/**
+ * Orders the test classes so that the impacted tests, then the tests which
+ * failed recently and the quickest ones, run first.  Test classes without
+ * any previous run come before all the others.
+ *
+ * The agent does not apply this order itself: JUnit 5.6, used by the agent, has
+ * no extension point to order test classes, and a <code>MethodOrderer</code>
+ * would not help as the statistics are recorded per test class.  This is only
+ * a helper, meant to be called by a <code>ClassOrderer</code> on JUnit 5.8+:
+ * <pre>
+ *     TiaTestOrder.sort(context.getClassDescriptors(), d -&gt; d.getTestClass().getName());
+ * </pre>
+ */
+public final class TiaTestOrder {
+
+    private static volatile Map<String, Integer> ranks;
+
+    private TiaTestOrder() {
+    }
+
+    public static <T> void sort(List<T> tests, Function<T, String> className) {
+        sort(tests, className, getRanks());
+    }
+
+    static <T> void sort(List<T> tests, Function<T, String> className, Map<String, Integer> ranks) {
+        tests.sort(Comparator.comparingInt(t -> ranks.getOrDefault(className.apply(t), -1)));
+    }
+
+    static Map<String, Integer> getRanks() {
+        if (ranks == null) {
+            synchronized (TiaTestOrder.class) {
+                if (ranks == null) {
+                    ranks = getRanks(Agent.getTestOrder());
+                }
+            }
+        }
+        return ranks;
+    }
+
+    static Map<String, Integer> getRanks(List<String> order) {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            map.put(order.get(i), i);
+        }
+        return map;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.agent;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javassist.bytecode.ByteArray;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AgentClassTransformerTest {
+
+    @BeforeEach
+    public void setUp() {
+        // the listener of this module records the references of this test class,
+        // so remove its context to start without any test running
+        AgentClassTransformer.getReferencedClasses(getClass().getName());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        AgentClassTransformer.getReferencedClasses("Test1");
+        AgentClassTransformer.getReferencedClasses("Test2");
+    }
+
+    @Test
+    public void testContextAttribution() throws Exception {
+        AgentClassTransformer.start("Test1");
+        AgentClassTransformer.start("Test2");
+
+        AgentClassTransformer.Context previous = AgentClassTransformer.enter("Test1");
+        try {
+            AgentClassTransformer.add("org.foo.A");
+            assertEquals(List.of("Test1"), AgentClassTransformer.getCurrentTests());
+            // the threads started by the test inherit its context
+            Thread thread = new Thread(() -> AgentClassTransformer.add("org.foo.B"));
+            thread.start();
+            thread.join();
+        } finally {
+            AgentClassTransformer.exit(previous);
+        }
+
+        assertEquals(Set.of("org.foo.A", "org.foo.B"), AgentClassTransformer.getReferencedClasses("Test1"));
+        assertEquals(Set.of(), AgentClassTransformer.getReferencedClasses("Test2"));
+    }
+
+    @Test
+    public void testNestedContexts() {
+        AgentClassTransformer.Context outer = AgentClassTransformer.enter("Test1");
+        AgentClassTransformer.Context inner = AgentClassTransformer.enter("Test2");
+        AgentClassTransformer.add("org.foo.B");
+        AgentClassTransformer.exit(inner);
+        AgentClassTransformer.add("org.foo.A");
+        AgentClassTransformer.exit(outer);
+
+        assertEquals(Set.of("org.foo.A"), AgentClassTransformer.getReferencedClasses("Test1"));
+        assertEquals(Set.of("org.foo.B"), AgentClassTransformer.getReferencedClasses("Test2"));
+    }
+
+    @Test
+    public void testConcurrentTests() throws Exception {
+        int nbTests = 4;
+        int nbClasses = 1000;
+        CountDownLatch latch = new CountDownLatch(nbTests);
+        ExecutorService executor = Executors.newFixedThreadPool(nbTests);
+        try {
+            List<Future<Set<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < nbTests; i++) {
+                String test = "ConcurrentTest" + i;
+                futures.add(executor.submit(() -> {
+                    AgentClassTransformer.Context previous = AgentClassTransformer.enter(test);
+                    try {
+                        // make sure the tests overlap
+                        latch.countDown();
+                        latch.await();
+                        for (int c = 0; c < nbClasses; c++) {
+                            AgentClassTransformer.add(test + ".C" + c);
+                            AgentClassTransformer.add("org.foo.Shared");
+                        }
+                    } finally {
+                        AgentClassTransformer.exit(previous);
+                    }
+                    return AgentClassTransformer.getReferencedClasses(test);
+                }));
+            }
+            for (int i = 0; i < nbTests; i++) {
+                Set<String> classes = futures.get(i).get();
+                assertEquals(nbClasses + 1, classes.size());
+                String prefix = "ConcurrentTest" + i + ".";
+                assertTrue(classes.stream().allMatch(c -> c.startsWith(prefix) || c.equals("org.foo.Shared")));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNoContextFallback() throws Exception {
+        // without any test running, the references are kept for the next test reported
+        AgentClassTransformer.add("org.foo.Static");
+        assertTrue(AgentClassTransformer.getAllReferencedClasses().contains("org.foo.Static"));
+
+        // references made outside of a context go to all the running tests
+        AgentClassTransformer.start("Test1");
+        AgentClassTransformer.start("Test2");
+        Thread thread = new Thread(() -> AgentClassTransformer.add("org.foo.Shared"));
+        thread.start();
+        thread.join();
+
+        assertEquals(Set.of("org.foo.Static", "org.foo.Shared"), AgentClassTransformer.getReferencedClasses("Test1"));
+        assertEquals(Set.of("org.foo.Shared"), AgentClassTransformer.getReferencedClasses("Test2"));
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        ProtectionDomain domain = ByteArray.class.getProtectionDomain();
+        String location = domain.getCodeSource().getLocation().getPath();
+        AgentClassTransformer transformer = new AgentClassTransformer(Set.of(), Set.of(location));
+        byte[] buffer;
+        try (InputStream is = ByteArray.class.getResourceAsStream("ByteArray.class")) {
+            buffer = is.readAllBytes();
+        }
+        byte[] instrumented = transformer.transform(null, "javassist/bytecode/ByteArray", null, domain, buffer);
+        Method method = new DefiningLoader().define("javassist.bytecode.ByteArray", instrumented)
+                .getMethod("readU16bit", byte[].class, int.class);
+
+        // the class is loaded once, but the dependency is reported to each test using it
+        for (String test : List.of("Test1", "Test2")) {
+            AgentClassTransformer.Context previous = AgentClassTransformer.enter(test);
+            try {
+                method.invoke(null, new byte[2], 0);
+            } finally {
+                AgentClassTransformer.exit(previous);
+            }
+            assertEquals(Set.of(AgentClassTransformer.DEPENDENCY_PREFIX + location),
+                    AgentClassTransformer.getReferencedClasses(test));
+        }
+    }
+
+    static class DefiningLoader extends ClassLoader {
+
+        DefiningLoader() {
+            super(AgentClassTransformerTest.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] buffer) {
+            return defineClass(name, buffer, 0, buffer.length);
+        }
+    }
+
+}
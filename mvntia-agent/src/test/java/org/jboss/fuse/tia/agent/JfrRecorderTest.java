@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.agent;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JfrRecorderTest {
+
+    static class Loaded1 {
+    }
+
+    static class Loaded2 {
+    }
+
+    static class NotLoaded {
+    }
+
+    @Test
+    public void testRecorder() throws Exception {
+        URL url = getClass().getProtectionDomain().getCodeSource().getLocation();
+        String root = Paths.get(url.toURI()).toString();
+        assertTrue(JfrRecorder.index(List.of(root)).contains(getClass().getName() + "$NotLoaded"));
+
+        // the nested classes have already been loaded by junit, so load them again in another loader
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { url }, null)) {
+            JfrRecorder.install(List.of(root));
+            assertTrue(JfrRecorder.isInstalled());
+            // the recording has started when the recorder is installed
+            Class.forName(getClass().getName() + "$Loaded1", false, loader);
+            long id1 = JfrRecorder.mark();
+            Class.forName(getClass().getName() + "$Loaded2", false, loader);
+            long id2 = JfrRecorder.mark();
+
+            // the classes loaded before a mark are known once it has been streamed
+            Set<String> classes = JfrRecorder.getLoadedClasses(id1);
+            assertTrue(classes.contains(getClass().getName() + "$Loaded1"));
+            assertFalse(classes.contains(getClass().getName() + "$Loaded2"));
+            classes = JfrRecorder.getLoadedClasses(id2);
+            assertTrue(classes.contains(getClass().getName() + "$Loaded1"));
+            assertTrue(classes.contains(getClass().getName() + "$Loaded2"));
+            assertFalse(classes.contains(getClass().getName() + "$NotLoaded"));
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.agent;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+import com.sun.tools.attach.VirtualMachine;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ResourceTrackerTest {
+
+    /**
+     * Agent attached to the JVM running the tests, to get an {@link Instrumentation}.
+     */
+    public static class Attach {
+
+        static volatile Instrumentation instrumentation;
+
+        public static void agentmain(String args, Instrumentation instrumentation) {
+            Attach.instrumentation = instrumentation;
+        }
+    }
+
+    @Test
+    public void testResourceTracker() throws Exception {
+        Path basedir = Files.createTempDirectory("mvntia-module-");
+        Path buildDir = Files.createDirectories(basedir.resolve("target"));
+        Path classes = Files.createDirectories(buildDir.resolve("test-classes/org/foo")).getParent().getParent();
+        Files.writeString(classes.resolve("org/foo/data.txt"), "resource");
+        Path file = Files.createDirectories(basedir.resolve("src/test/data")).resolve("input.txt");
+        Files.writeString(file, "file");
+        Path output = buildDir.resolve("output.txt");
+        Files.writeString(output, "output");
+
+        ResourceTracker.install(attach(), basedir.toString(), buildDir.toString(), List.of(classes.toString()));
+        Set<String> resources;
+        AgentClassTransformer.Context previous = AgentClassTransformer.enter("Test1");
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, null)) {
+            // a resource of the class path is recorded using its name
+            loader.getResource("org/foo/data.txt");
+            // a file of the module is recorded using its path relative to the module
+            Files.readString(file);
+            // a file of the build directory is not recorded
+            try (InputStream is = new FileInputStream(output.toFile())) {
+                is.readAllBytes();
+            }
+        } finally {
+            AgentClassTransformer.exit(previous);
+            // the hook is loaded by the bootstrap class loader
+            Class.forName(ResourceTracker.HOOK, true, null).getField("listener").set(null, null);
+            resources = AgentClassTransformer.getReferencedClasses("Test1").stream()
+                    .filter(c -> c.startsWith(AgentClassTransformer.RESOURCE_PREFIX))
+                    .collect(Collectors.toSet());
+        }
+
+        assertEquals(Set.of("/org/foo/data.txt", "/src/test/data/input.txt"), resources);
+    }
+
+    static Instrumentation attach() throws Exception {
+        if (Attach.instrumentation == null) {
+            Path jar = Files.createTempFile("mvntia-attach-", ".jar");
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().putValue("Agent-Class", Attach.class.getName());
+            manifest.getMainAttributes().putValue("Can-Redefine-Classes", "true");
+            manifest.getMainAttributes().putValue("Can-Retransform-Classes", "true");
+            try (JarOutputStream ignored = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+                // only the manifest is needed, the agent class is found in the class path
+            }
+            VirtualMachine vm = VirtualMachine.attach(String.valueOf(ProcessHandle.current().pid()));
+            try {
+                vm.loadAgent(jar.toString());
+            } finally {
+                vm.detach();
+            }
+        }
+        return Attach.instrumentation;
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.junit5;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TiaTestOrderTest {
+
+    @Test
+    public void testSort() {
+        Map<String, Integer> ranks = TiaTestOrder.getRanks(List.of("org.foo.Test3", "org.foo.Test1", "org.foo.Test2"));
+        List<String> tests = new ArrayList<>(List.of("org.foo.Test1", "org.foo.Test2", "org.foo.Test3", "org.foo.NewTest"));
+        TiaTestOrder.sort(tests, Function.identity(), ranks);
+        // tests without any previous run come first
+        assertEquals(List.of("org.foo.NewTest", "org.foo.Test3", "org.foo.Test1", "org.foo.Test2"), tests);
+    }
+
+    @Test
+    public void testSortWithoutOrder() {
+        // without any report, the order is unchanged
+        List<String> tests = new ArrayList<>(List.of("org.foo.Test2", "org.foo.Test1"));
+        TiaTestOrder.sort(tests, Function.identity(), TiaTestOrder.getRanks(List.of()));
+        assertEquals(List.of("org.foo.Test2", "org.foo.Test1"), tests);
+    }
+
+}
@@ -67,6 +67,20 @@ class MultiModuleTest {
 
     @Test
     void testMultiModule() throws Exception {
+        runMultiModule();
+    }
+
+    @Test
+    void testMultiModuleExtension() throws Exception {
+        // the server is started and the reports written by the lifecycle participant
+        TestUtils.replace(projectDir.resolve("pom.xml"),
+                "<version>0.0.1-SNAPSHOT</version>\n                <executions>",
+                "<version>0.0.1-SNAPSHOT</version>\n                <extensions>true</extensions>\n                <executions>");
+        addAndCommit("Declare the plugin as an extension");
+        runMultiModule();
+    }
+
+    private void runMultiModule() throws Exception {
         // First run
         newVerifier(disabledTestsLines("no previous run", "no previous run"));
 
@@ -17,19 +17,31 @@ package org.jboss.fuse.tia.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.stream.Collectors;
 
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
-import org.jboss.fuse.tia.agent.Client;
+import org.jboss.fuse.tia.reports.ChangeTracker;
 import org.jboss.fuse.tia.reports.GitClient;
 import org.jboss.fuse.tia.reports.GitStorage;
+import org.jboss.fuse.tia.reports.HttpStorage;
+import org.jboss.fuse.tia.reports.JournalStorage;
 import org.jboss.fuse.tia.reports.Storage;
 
 public abstract class AbstractTiaMojo extends AbstractMojo {
 
+    // default values, also used by the lifecycle participant which reads the parameters itself
+    static final String DEFAULT_WATCH = "false";
+    static final String DEFAULT_MAX_CHAIN_LENGTH = "0";
+    static final String DEFAULT_STORAGE = "git";
+    static final String DEFAULT_REMOTE_UPLOAD = "false";
+    static final String DEFAULT_OVERLAY = "false";
+
     /**
      * Maven project.
      */
@@ -39,6 +51,59 @@ public abstract class AbstractTiaMojo extends AbstractMojo {
     @Parameter(property = "mvntia.git.notes.ref")
     String gitNotesRef = GitStorage.GIT_NOTES_REF;
 
+    /**
+     * Watch the git working tree so that the repository status is computed
+     * incrementally when running inside a long-lived daemon such as mvnd.
+     */
+    @Parameter(property = "mvntia.watch", defaultValue = DEFAULT_WATCH)
+    boolean watch;
+
+    /**
+     * Maximum number of delta notes, which only contain the reports changed since the
+     * previous note, written before a note containing the full reports.  Delta
+     * notes are disabled by default, as they cannot be read by older versions of
+     * the plugin, which would see partial reports.
+     */
+    @Parameter(property = "mvntia.maxChainLength", defaultValue = DEFAULT_MAX_CHAIN_LENGTH)
+    int maxChainLength;
+
+    /**
+     * Where the reports are stored: <code>git</code> to store them in git notes,
+     * or <code>journal</code> to store them in a local journal in the
+     * <code>.git/mvntia</code> directory, which can later be exported to git notes
+     * using the <code>export-reports</code> goal, or <code>remote</code> to also
+     * fetch the reports from the server configured with <code>remoteUrl</code>.
+     */
+    @Parameter(property = "mvntia.storage", defaultValue = DEFAULT_STORAGE)
+    String storage;
+
+    /**
+     * Base url of the server sharing the reports when using the <code>remote</code> storage.
+     */
+    @Parameter(property = "mvntia.remote.url")
+    String remoteUrl;
+
+    /**
+     * Upload the reports to the remote server, usually enabled on CI only.
+     */
+    @Parameter(property = "mvntia.remote.upload", defaultValue = DEFAULT_REMOTE_UPLOAD)
+    boolean remoteUpload;
+
+    /**
+     * Bearer token used to authenticate to the remote server.
+     */
+    @Parameter(property = "mvntia.remote.token")
+    String remoteToken;
+
+    /**
+     * Keep the reports computed on a dirty working tree in a local overlay, so that
+     * the next build only runs the tests impacted by the files modified since.  The
+     * overlay is promoted to git notes when the reports of the commit containing
+     * these changes are written.  Disabled by default.
+     */
+    @Parameter(property = "mvntia.overlay", defaultValue = DEFAULT_OVERLAY)
+    boolean overlay;
+
     String executionDir;
 
     public final void execute() throws MojoExecutionException, MojoFailureException {
@@ -54,28 +119,87 @@ public abstract class AbstractTiaMojo extends AbstractMojo {
     public String getExecutionDir() {
         if (executionDir == null) {
             String dir = System.getProperty("maven.multiModuleProjectDirectory", ".");
-            File parent = new File(dir).getAbsoluteFile();
-            boolean isGit = new File(parent, ".git").exists();
-            while (parent.getParentFile() != null && !isGit) {
-                parent = parent.getParentFile();
-                isGit = new File(parent, ".git").exists();
-            }
-            if (isGit) {
-                executionDir = parent.getAbsolutePath();
-            } else {
-                throw new RuntimeException("It is not a Git repository");
-            }
+            executionDir = findGitRoot(new File(dir));
         }
         return executionDir;
     }
 
+    /**
+     * Key of the server used for this execution in the {@link Servers} registry.
+     */
+    protected String getServerKey() {
+        return getServerKey(getExecutionDir(), gitNotesRef, storage);
+    }
+
+    /**
+     * Identifier of the project in the reports.
+     */
+    protected String getProjectId() {
+        return project.getGroupId() + ":" + project.getArtifactId();
+    }
+
+    /**
+     * Digest of the dependencies of the project, the reports being invalidated when it changes.
+     */
+    protected String getDigest() {
+        return project.getArtifacts().stream()
+                .map(Artifact::toString)
+                .collect(Collectors.joining(" "));
+    }
+
     protected Storage createStorage() throws IOException {
-        return new GitStorage(getExecutionDir(), gitNotesRef);
+        return createStorage(getExecutionDir(), gitNotesRef, storage,
+                remoteUrl, remoteUpload, remoteToken, false, maxChainLength, overlay);
     }
 
-    protected Client createClient() throws IOException {
-        GitClient client = new GitClient(createStorage(), getLog());
+    protected GitClient createClient() throws IOException {
+        GitClient client = new GitClient(createStorage(getExecutionDir(), gitNotesRef, storage,
+                remoteUrl, remoteUpload, remoteToken, watch, maxChainLength, overlay), getLog());
         return client;
     }
 
+    static String findGitRoot(File dir) {
+        File parent = dir.getAbsoluteFile();
+        boolean isGit = new File(parent, ".git").exists();
+        while (parent.getParentFile() != null && !isGit) {
+            parent = parent.getParentFile();
+            isGit = new File(parent, ".git").exists();
+        }
+        if (isGit) {
+            return parent.getAbsolutePath();
+        } else {
+            throw new RuntimeException("It is not a Git repository");
+        }
+    }
+
+    static String getServerKey(String executionDir, String gitNotesRef, String storage) {
+        return executionDir + "#" + gitNotesRef + "#" + storage;
+    }
+
+    static Storage createStorage(String executionDir, String gitNotesRef, String type,
+                                 String remoteUrl, boolean remoteUpload, String remoteToken,
+                                 boolean watch, int maxChainLength, boolean overlay) {
+        ChangeTracker tracker = watch ? new ChangeTracker(Paths.get(executionDir)) : null;
+        GitStorage storage;
+        switch (type) {
+            case "git":
+                storage = new GitStorage(executionDir, gitNotesRef, tracker);
+                break;
+            case "journal":
+                storage = new JournalStorage(executionDir, gitNotesRef, tracker);
+                break;
+            case "remote":
+                if (remoteUrl == null || remoteUrl.isEmpty()) {
+                    throw new IllegalArgumentException("The remote storage requires mvntia.remote.url to be set");
+                }
+                storage = new HttpStorage(executionDir, gitNotesRef, tracker, remoteUrl, remoteUpload, remoteToken);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported storage '" + type + "'");
+        }
+        storage.setMaxChainLength(maxChainLength);
+        storage.setOverlay(overlay);
+        return storage;
+    }
+
 }
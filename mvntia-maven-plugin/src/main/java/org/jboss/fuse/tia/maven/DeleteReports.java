@@ -18,13 +18,16 @@ package org.jboss.fuse.tia.maven;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.jboss.fuse.tia.reports.Storage;
 
 @Mojo(name = "delete-reports", defaultPhase = LifecyclePhase.INITIALIZE,
         requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
 public class DeleteReports extends AbstractTiaMojo {
 
     public void doExecute() throws Exception {
-        createStorage().removeNotes();
+        try (Storage storage = createStorage()) {
+            storage.removeNotes();
+        }
     }
 
 }
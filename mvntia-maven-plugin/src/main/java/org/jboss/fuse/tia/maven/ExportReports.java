@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.jboss.fuse.tia.reports.JournalStorage;
+import org.jboss.fuse.tia.reports.Storage;
+
+/**
+ * Exports the reports stored in the local journal to git notes,
+ * so that they can be pushed and shared.
+ */
+@Mojo(name = "export-reports", defaultPhase = LifecyclePhase.INITIALIZE,
+        aggregator = true, threadSafe = true)
+public class ExportReports extends AbstractTiaMojo {
+
+    public void doExecute() throws Exception {
+        try (Storage storage = createStorage()) {
+            if (!(storage instanceof JournalStorage)) {
+                getLog().warn("Exporting is only supported for reports stored in a journal, use -Dmvntia.storage=journal");
+                return;
+            }
+            int count = ((JournalStorage) storage).exportNotes();
+            getLog().info(count + " reports exported to " + gitNotesRef);
+        }
+    }
+
+}
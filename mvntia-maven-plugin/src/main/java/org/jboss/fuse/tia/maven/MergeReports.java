@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jboss.fuse.tia.reports.GitStorage;
+import org.jboss.fuse.tia.reports.Storage;
+
+/**
+ * Merges test reports written by several builds of the same commits, for
+ * example by the shards of a CI build.  Reports can be merged from other
+ * notes refs, or from files exported with the <code>show-reports</code> goal.
+ */
+@Mojo(name = "merge-reports", defaultPhase = LifecyclePhase.INITIALIZE,
+        aggregator = true, threadSafe = true)
+public class MergeReports extends AbstractTiaMojo {
+
+    /**
+     * Notes refs to merge into the notes ref.
+     */
+    @Parameter(property = "mvntia.merge.refs")
+    List<String> refs;
+
+    /**
+     * Report files to merge into the note of the HEAD commit.
+     */
+    @Parameter(property = "mvntia.merge.files")
+    List<File> files;
+
+    public void doExecute() throws Exception {
+        try (Storage storage = createStorage()) {
+            if (!(storage instanceof GitStorage)) {
+                getLog().warn("Merging is only supported for reports stored in git notes");
+                return;
+            }
+            GitStorage gitStorage = (GitStorage) storage;
+            if (refs != null) {
+                for (String ref : refs) {
+                    ObjectId id = gitStorage.mergeNotes(ref);
+                    getLog().info("Merged notes from " + ref + " into " + gitNotesRef + " (" + id.name() + ")");
+                }
+            }
+            if (files != null && !files.isEmpty()) {
+                List<String> notes = new ArrayList<>();
+                for (File file : files) {
+                    notes.add(Files.readString(file.toPath()));
+                }
+                gitStorage.mergeReports(notes);
+                getLog().info("Merged reports from " + files);
+            }
+        }
+    }
+
+}
@@ -17,22 +17,30 @@ package org.jboss.fuse.tia.maven;
 
 import java.io.File;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.jboss.fuse.tia.agent.AgentOptions;
-import org.jboss.fuse.tia.reports.GitClient;
+import org.jboss.fuse.tia.reports.Dependencies;
 
 @Mojo(name = "prepare-agent", defaultPhase = LifecyclePhase.INITIALIZE,
         requiresDependencyResolution = ResolutionScope.TEST, threadSafe = true)
@@ -47,7 +55,11 @@ public class PrepareAgent extends AbstractTiaMojo {
      */
     static final String SUREFIRE_ARG_LINE = "argLine";
 
-    static final Map<String, Server> SERVERS = new HashMap<>();
+    static final String SUREFIRE_PLUGIN_KEY = "org.apache.maven.plugins:maven-surefire-plugin";
+
+    static final String DEFAULT_SKIP = "false";
+
+    static final Servers SERVERS = new Servers();
 
     static final MessageDigest MD5;
     static {
@@ -58,10 +70,13 @@ public class PrepareAgent extends AbstractTiaMojo {
         }
     }
 
+    @Parameter(defaultValue = "${session}", readonly = true)
+    MavenSession session;
+
     /**
      * Flag used to suppress execution.
      */
-    @Parameter(property = "mvntia.skip", defaultValue = "false")
+    @Parameter(property = "mvntia.skip", defaultValue = DEFAULT_SKIP)
     boolean skip;
 
     /**
@@ -88,54 +103,216 @@ public class PrepareAgent extends AbstractTiaMojo {
     @Parameter(defaultValue = "${project.groupId}:*")
     Collection<String> artifacts;
 
+    /**
+     * Maximum number of git repositories for which a server is kept alive.
+     */
+    @Parameter(property = "mvntia.servers.max", defaultValue = "4")
+    int maxServers;
+
+    /**
+     * Number of minutes after which an unused server is shut down.
+     */
+    @Parameter(property = "mvntia.servers.idleTimeout", defaultValue = "60")
+    int idleTimeout;
+
+    /**
+     * Percentage of the maximum heap that the reports held by servers can use.
+     */
+    @Parameter(property = "mvntia.servers.maxHeapPercent", defaultValue = "10")
+    int maxHeapPercent;
+
+    /**
+     * Record the hash of the bytecode used by each test, so that tests whose
+     * test and referenced classes are unchanged are skipped even when they are
+     * impacted by the modified files, for example after a rebase.
+     */
+    @Parameter(property = "mvntia.hashes", defaultValue = "false")
+    boolean hashes;
+
+    /**
+     * Ignore the debug attributes, such as line numbers and source file, when
+     * computing the hashes of the bytecode, so that comment, javadoc or
+     * formatting only changes do not cause tests to be run.
+     */
+    @Parameter(property = "mvntia.hashes.normalize", defaultValue = "false")
+    boolean normalizeHashes;
+
+    /**
+     * Record the external dependencies used by each test, so that only the tests
+     * using a modified dependency are run when the dependencies of the project
+     * change, instead of all the tests of the project.  Only used in the
+     * <code>record</code> mode.
+     */
+    @Parameter(property = "mvntia.trackDependencies", defaultValue = "false")
+    boolean trackDependencies;
+
+    /**
+     * Record the resources of the class path and the files of the module read by
+     * each test, so that the tests reading a modified resource are run.
+     */
+    @Parameter(property = "mvntia.trackResources", defaultValue = "false")
+    boolean trackResources;
+
+    /**
+     * Record the classes declaring the compile-time constants inlined by javac
+     * and the annotation types used by each test, which are not seen when the
+     * tests run, so that changing a constant runs the tests using it.
+     */
+    @Parameter(property = "mvntia.trackConstants", defaultValue = "false")
+    boolean trackConstants;
+
+    /**
+     * Add the agent to the JVMs started by the tests, using the <code>JAVA_TOOL_OPTIONS</code>
+     * environment variable, so that the classes they use are attributed to the test
+     * which started them.  Only used in the <code>record</code> mode.
+     */
+    @Parameter(property = "mvntia.propagate", defaultValue = "false")
+    boolean propagate;
+
+    /**
+     * Time budget, in seconds, used in each module to also run the skipped tests
+     * which have not been run for the longest time, so that their reports are
+     * refreshed over successive builds.  Use <code>0</code> to only run the impacted tests.
+     * Not used in the <code>select</code> mode, which does not update the reports.
+     */
+    @Parameter(property = "mvntia.budget", defaultValue = "0")
+    long budget;
+
+    /**
+     * How the tests are run: <code>record</code> to skip the tests not impacted by
+     * the changes and record the classes used by the others, or <code>select</code>
+     * to only skip the tests, without the cost of instrumenting the classes, for
+     * example on developer machines while the reports are recorded on CI, or
+     * <code>static</code> to compute the classes used by the tests from their
+     * bytecode instead of instrumenting the classes, for tests which cannot
+     * tolerate the agent, or <code>jfr</code> to record the classes loaded while
+     * the tests run using the JDK Flight Recorder (Java 14+), which requires each
+     * test class to run in its own fork (<code>reuseForks=false</code>).
+     */
+    @Parameter(property = "mvntia.mode", defaultValue = AgentOptions.MODE_RECORD)
+    String mode;
+
     public void doExecute() throws Exception {
         if (skip) {
             getLog().info("Skipping mvntia execution because property mvntia.skip is set.");
             return;
         }
 
-        String executionDir = getExecutionDir();
-
-        Server server = SERVERS.get(executionDir);
-        if (server == null) {
-            getLog().info("Creating mvntia server for git repository " + executionDir);
-            server = new Server(createClient());
-            SERVERS.put(executionDir, server);
+        if (!AgentOptions.MODE_RECORD.equals(mode) && !AgentOptions.MODE_SELECT.equals(mode)
+                && !AgentOptions.MODE_STATIC.equals(mode) && !AgentOptions.MODE_JFR.equals(mode)) {
+            throw new IllegalArgumentException("Unsupported mode '" + mode + "'");
         }
+        if (AgentOptions.MODE_JFR.equals(mode)
+                && isForkReused(project, TiaLifecycleParticipant.getProperty(session, "reuseForks"))) {
+            // a class is only loaded once per JVM, so it could not be attributed to the next test classes
+            throw new IllegalArgumentException("The '" + mode + "' mode requires each test class to run in "
+                    + "its own fork, set reuseForks to false in the configuration of surefire");
+        }
+
+        SERVERS.configure(maxServers, TimeUnit.MINUTES.toMillis(idleTimeout), maxHeapPercent);
+        int concurrency = session.getRequest().getDegreeOfConcurrency();
+        Server server = SERVERS.acquire(getServerKey(), Servers.getSessionId(session), () -> new Server(createClient(), concurrency));
+        server.setConcurrency(concurrency);
 
         if (force) {
             getLog().warn("The mvntia.force option is set, ignoring existing TIA data");
         }
 
-        String artifactsSet = project.getArtifacts().stream()
-                .map(Artifact::toString)
-                .collect(Collectors.joining(" "));
-        // String digest = digest(artifactsSet);
-        String digest = artifactsSet;
+        String digest = getDigest();
 
         Collection<ArtifactId> artifactIds = ArtifactId.toIds(artifacts);
-        Set<String> reactorDeps = project.getArtifacts().stream()
+        List<String> reactorDeps = project.getArtifacts().stream()
                 .filter(a -> ArtifactId.matches(artifactIds, a))
                 .map(a -> a.getFile().toString())
-                .collect(Collectors.toSet());
+                .distinct()
+                .collect(Collectors.toList());
+        // only the instrumentation records the dependencies used by the tests
+        Map<String, String> externalDeps = null;
+        if (trackDependencies && AgentOptions.MODE_RECORD.equals(mode)) {
+            externalDeps = new TreeMap<>();
+            for (Artifact a : project.getArtifacts()) {
+                if (!ArtifactId.matches(artifactIds, a) && a.getFile() != null && a.getFile().isFile()) {
+                    externalDeps.put(a.getFile().toString(), Dependencies.getKey(a.toString()));
+                }
+            }
+        }
 
-        String id = project.getGroupId() + ":" + project.getArtifactId();
+        String id = getProjectId();
         final String name = propertyName;
         final Properties projectProperties = project.getProperties();
         final String oldValue = projectProperties.getProperty(name);
-        final String newValue = new AgentOptions()
+        AgentOptions options = new AgentOptions()
                 .digest(digest)
                 .force(force)
                 .port(server.getPort())
                 .project(id)
-                .reactorDeps(String.join(";", reactorDeps))
-                .prependVMArguments(oldValue, getAgentJarFile(), debug);
+                .mode(mode)
+                .reactorDeps(String.join(";", reactorDeps));
+        if (propagate && AgentOptions.MODE_RECORD.equals(mode)) {
+            options.propagate(true);
+        }
+        if (externalDeps != null) {
+            options.externalDeps(String.join(";", externalDeps.keySet()));
+        }
+        String outputDirs = project.getBuild().getTestOutputDirectory() + ";" + project.getBuild().getOutputDirectory();
+        if (trackResources && AgentOptions.MODE_RECORD.equals(mode)) {
+            options.basedir(project.getBasedir().toString())
+                    .buildDir(project.getBuild().getDirectory())
+                    .outputDirs(outputDirs);
+        } else if (AgentOptions.MODE_JFR.equals(mode)) {
+            options.outputDirs(outputDirs);
+        }
+        final String newValue = options.prependVMArguments(oldValue, getAgentJarFile(), debug);
         getLog().debug("Preparing surefire to run with mvntia");
         getLog().debug("    property " + name + " set to '" + newValue + "'");
         getLog().debug("Ignoring artifacts: " + artifacts);
         projectProperties.setProperty(name, newValue);
 
-        GitClient.setLogger(id, getLog());
+        server.getClient().setLogger(id, getLog());
+        List<File> classPath = new ArrayList<>();
+        classPath.add(new File(project.getBuild().getTestOutputDirectory()));
+        classPath.add(new File(project.getBuild().getOutputDirectory()));
+        for (String dep : reactorDeps) {
+            classPath.add(new File(dep));
+        }
+        server.getClient().setClassPath(id, hashes ? classPath : null, normalizeHashes);
+        boolean closure = AgentOptions.MODE_STATIC.equals(mode);
+        server.getClient().setStaticAnalysis(id, closure || trackConstants ? classPath : null,
+                Paths.get(project.getBuild().getDirectory(), "mvntia-static.json"), closure, trackConstants);
+        server.getClient().setDependencies(id, externalDeps);
+        long budgetMillis = TimeUnit.SECONDS.toMillis(budget);
+        if (budgetMillis > 0 && AgentOptions.MODE_SELECT.equals(mode)) {
+            // the reports are not updated, so the same tests would be run on each build
+            getLog().warn("The mvntia.budget option is ignored in the select mode");
+            budgetMillis = 0;
+        }
+        server.getClient().setBudget(id, budgetMillis);
+    }
+
+    /**
+     * Checks if surefire runs several test classes in the same fork, which is its default.
+     *
+     * @param property the value of the <code>reuseForks</code> user property, if any
+     */
+    static boolean isForkReused(MavenProject project, String property) {
+        String value = null;
+        Plugin plugin = project.getPlugin(SUREFIRE_PLUGIN_KEY);
+        if (plugin != null) {
+            PluginExecution execution = plugin.getExecutionsAsMap().get("default-test");
+            value = getConfiguration(execution != null ? execution.getConfiguration() : null, "reuseForks");
+            if (value == null) {
+                value = getConfiguration(plugin.getConfiguration(), "reuseForks");
+            }
+        }
+        if (value == null) {
+            value = property != null ? property : project.getProperties().getProperty("reuseForks");
+        }
+        return value == null || Boolean.parseBoolean(value.trim());
+    }
+
+    static String getConfiguration(Object configuration, String name) {
+        Xpp3Dom child = configuration instanceof Xpp3Dom ? ((Xpp3Dom) configuration).getChild(name) : null;
+        return child != null ? child.getValue() : null;
     }
 
     File getAgentJarFile() {
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jboss.fuse.tia.reports.GitStorage;
+import org.jboss.fuse.tia.reports.NotesPruner;
+import org.jboss.fuse.tia.reports.Storage;
+
+/**
+ * Removes the reports attached to commits which are not reachable anymore
+ * or too old, and rewrites the notes ref as a single commit, or compacts
+ * the journal when the reports are stored in a journal.
+ */
+@Mojo(name = "prune-reports", defaultPhase = LifecyclePhase.INITIALIZE,
+        aggregator = true, threadSafe = true)
+public class PruneReports extends AbstractTiaMojo {
+
+    /**
+     * Number of generations from the branch and tag tips for which reports are kept.
+     * Use a negative value to keep the reports of all reachable commits.
+     */
+    @Parameter(property = "mvntia.prune.depth", defaultValue = "1000")
+    int depth;
+
+    /**
+     * Only display what would be pruned.
+     */
+    @Parameter(property = "mvntia.dryRun", defaultValue = "false")
+    boolean dryRun;
+
+    public void doExecute() throws Exception {
+        NotesPruner.Result result;
+        try (Storage storage = createStorage()) {
+            if (!(storage instanceof GitStorage)) {
+                getLog().warn("Pruning is only supported for reports stored in git notes");
+                return;
+            }
+            result = ((GitStorage) storage).prune(depth, dryRun);
+        }
+        if (result == null) {
+            getLog().info("No reports to prune");
+            return;
+        }
+        String prefix = dryRun ? "[dry run] " : "";
+        getLog().info(prefix + "Notes: " + result.entries + " -> " + result.keptEntries
+                + " (" + result.unreachable + " unreachable, " + result.old + " older than " + depth + " generations, "
+                + result.broken + " broken, " + result.materialized + " deltas rewritten as full reports)");
+        getLog().info(prefix + "Size: " + result.bytes + " -> " + result.keptBytes + " bytes"
+                + " (" + (result.bytes - result.keptBytes) + " bytes saved)");
+        if (result.historyCommits > 0) {
+            // only for the git notes, a journal has no history
+            getLog().info(prefix + "History: " + result.historyCommits + " -> 1 commits");
+            getLog().info(prefix + "Lookup time for " + result.lookups + " commits: "
+                    + TimeUnit.NANOSECONDS.toMillis(result.lookupNanos) + " ms -> "
+                    + TimeUnit.NANOSECONDS.toMillis(result.prunedLookupNanos) + " ms"
+                    + (dryRun ? " (estimated)" : ""));
+        }
+        if (result.commit != null) {
+            getLog().info("Notes rewritten as commit " + result.commit.name());
+        }
+    }
+
+}
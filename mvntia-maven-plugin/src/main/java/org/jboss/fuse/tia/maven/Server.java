@@ -25,7 +25,12 @@ import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import com.google.gson.Gson;
@@ -35,7 +40,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
-import org.jboss.fuse.tia.agent.Client;
+import org.jboss.fuse.tia.reports.GitClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,29 +49,118 @@ public class Server implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(Server.class);
 
     Gson gson;
-    Client client;
+    GitClient client;
     HttpServer server;
+    ExecutorService executor;
+    Object session;
+    volatile long lastUsed = System.currentTimeMillis();
 
-    public Server(Client c) throws IOException  {
+    public Server(GitClient c) throws IOException  {
+        this(c, 1);
+    }
+
+    public Server(GitClient c, int concurrency) throws IOException  {
         gson = new GsonBuilder().create();
         client = c;
+        executor = createExecutor(concurrency);
         server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
-        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.setExecutor(executor);
         server.createContext("/", this::handle);
         server.start();
         LOGGER.info("MvnTIA server started");
     }
 
+    /**
+     * Creates the executor used to process requests.  Virtual threads are used
+     * when available, else a pool sized after the number of parallel builds.
+     */
+    static ExecutorService createExecutor(int concurrency) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // not supported on this JDK
+        }
+        int threads = getPoolSize(concurrency);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "mvntia-server");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Adapts the executor to the number of modules built in parallel, which
+     * may change when the server is reused for another build.
+     */
+    public void setConcurrency(int concurrency) {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            int threads = getPoolSize(concurrency);
+            if (threads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            } else {
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+        }
+    }
+
+    // each module may have a request blocked waiting for the initialization or
+    // a write, so allow a couple of threads per module built in parallel
+    static int getPoolSize(int concurrency) {
+        return Math.max(2, concurrency * 2);
+    }
+
     public int getPort() {
         return server.getAddress().getPort();
     }
 
+    public GitClient getClient() {
+        return client;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    public synchronized boolean isSession(Object session) {
+        return Objects.equals(this.session, session);
+    }
+
+    /**
+     * Records the build session using this server.
+     *
+     * @param session an identifier of the current build session
+     * @return <code>true</code> if the server was used by a different session before
+     */
+    public synchronized boolean startSession(Object session) {
+        Object previous = this.session;
+        this.session = session;
+        return previous != null && !Objects.equals(previous, session);
+    }
+
     @Override
     public void close() {
         server.stop(0);
+        executor.shutdown();
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.warn("Error closing client", e);
+        }
+        LOGGER.info("MvnTIA server stopped");
     }
 
     void handle(HttpExchange exchange) throws IOException {
+        touch();
         try (Reader r  = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
             JsonObject response;
             int code = 200;
@@ -103,6 +197,32 @@ public class Server implements Closeable {
                                 response = new JsonObject();
                                 response.addProperty("result", "ok");
                                 break;
+                            case "addChildReport":
+                                client.addChildReport(
+                                        request.get("project").getAsString(),
+                                        request.get("test").getAsString(),
+                                        List.of(gson.fromJson(request.get("classes"), String[].class))
+                                );
+                                response = new JsonObject();
+                                response.addProperty("result", "ok");
+                                break;
+                            case "addResult":
+                                client.addResult(
+                                        request.get("project").getAsString(),
+                                        request.get("test").getAsString(),
+                                        request.get("duration").getAsLong(),
+                                        request.get("success").getAsBoolean()
+                                );
+                                response = new JsonObject();
+                                response.addProperty("result", "ok");
+                                break;
+                            case "testOrder": {
+                                JsonArray result = new JsonArray();
+                                client.testOrder(request.get("project").getAsString()).forEach(result::add);
+                                response = new JsonObject();
+                                response.add("result", result);
+                                break;
+                            }
                             case "writeReport":
                                 client.writeReport(request.get("project").getAsString(), request.get("digest").getAsString());
                                 response = new JsonObject();
@@ -138,7 +258,7 @@ public class Server implements Closeable {
                 }
             } catch (IOException e) {
                 LOGGER.error("Unable to write response", e);
-                close();
+                server.stop(0);
             }
         }
     }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the mvntia servers, one per git repository.
+ *
+ * Servers are kept across builds when running in a long-lived daemon such
+ * as mvnd.  Servers which are not used by the current session are evicted
+ * when they have been idle for too long, when too many repositories are in
+ * use, or when the reports they hold exceed the heap budget.
+ */
+public class Servers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Servers.class);
+
+    // access ordered, so that iteration starts with the least recently used server
+    final Map<String, Server> servers = new LinkedHashMap<>(16, 0.75f, true);
+    Object currentSession;
+
+    int maxServers = 4;
+    long idleTimeout = TimeUnit.HOURS.toMillis(1);
+    int maxHeapPercent = 10;
+
+    public synchronized void configure(int maxServers, long idleTimeout, int maxHeapPercent) {
+        this.maxServers = maxServers;
+        this.idleTimeout = idleTimeout;
+        this.maxHeapPercent = maxHeapPercent;
+    }
+
+    /**
+     * Returns the server for the given repository, creating it if needed.
+     * If the server was last used by a different session, its client is
+     * refreshed in the background so that the new state of the repository
+     * is taken into account.
+     */
+    public synchronized Server acquire(String key, Object session, Callable<Server> factory) throws Exception {
+        currentSession = session;
+        Server server = servers.get(key);
+        if (server == null) {
+            LOGGER.info("Creating mvntia server for " + key);
+            server = factory.call();
+            servers.put(key, server);
+            server.startSession(session);
+        } else if (server.startSession(session)) {
+            LOGGER.info("Refreshing mvntia server for " + key);
+            server.getClient().clearLoggers();
+            server.getClient().initializeAsync();
+        }
+        server.touch();
+        evict();
+        return server;
+    }
+
+    /**
+     * Called at the end of a build session.  Pending reports are written and
+     * per-session data is released, and
+     * unless the servers should be kept alive for later builds, the servers
+     * used by this session are shut down.
+     */
+    public synchronized void release(Object session, boolean keepAlive) {
+        for (Iterator<Map.Entry<String, Server>> it = servers.entrySet().iterator(); it.hasNext();) {
+            Server server = it.next().getValue();
+            if (server.isSession(session)) {
+                try {
+                    server.getClient().flush();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Unable to write mvntia reports", e);
+                }
+                server.getClient().clearLoggers();
+                if (!keepAlive) {
+                    server.close();
+                    it.remove();
+                }
+            }
+        }
+        if (Objects.equals(currentSession, session)) {
+            currentSession = null;
+        }
+        evict();
+    }
+
+    public synchronized void close() {
+        servers.values().forEach(Server::close);
+        servers.clear();
+    }
+
+    void evict() {
+        long now = System.currentTimeMillis();
+        long budget = Runtime.getRuntime().maxMemory() / 100 * maxHeapPercent;
+        long used = servers.values().stream().mapToLong(s -> s.getClient().estimateSize()).sum();
+        int count = servers.size();
+        List<String> evicted = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Server>> it = servers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Server> entry = it.next();
+            Server server = entry.getValue();
+            if (currentSession != null && server.isSession(currentSession)) {
+                continue;
+            }
+            long size = server.getClient().estimateSize();
+            if (now - server.getLastUsed() > idleTimeout || count > maxServers || used > budget) {
+                server.close();
+                it.remove();
+                count--;
+                used -= size;
+                evicted.add(entry.getKey());
+            }
+        }
+        if (!evicted.isEmpty()) {
+            LOGGER.info("Evicted mvntia servers for " + evicted);
+        }
+    }
+
+    public static Object getSessionId(MavenSession session) {
+        return session.getRequest().getStartTime();
+    }
+
+}
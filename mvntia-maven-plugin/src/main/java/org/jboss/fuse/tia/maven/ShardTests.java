@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.jboss.fuse.tia.reports.GitClient;
+import org.jboss.fuse.tia.reports.TestShards;
+import org.jboss.fuse.tia.reports.TestStats;
+
+/**
+ * Splits the tests impacted by the changes into shards of similar duration,
+ * using the durations recorded in the reports, so that they can be run on
+ * several nodes.  The tests of each module are split on their own, so that
+ * the shards do not depend on the order in which the modules are built, and
+ * the tests of each shard are written to an include file, to be used on the
+ * N-th node with <code>-Dsurefire.includesFile=target/mvntia-shards/shard-N.txt</code>.
+ */
+@Mojo(name = "shard", defaultPhase = LifecyclePhase.PROCESS_TEST_CLASSES,
+        requiresDependencyResolution = ResolutionScope.TEST, threadSafe = true)
+public class ShardTests extends AbstractTiaMojo {
+
+    /**
+     * Duration assumed for the tests which have never been run, when no test of the module has been run either.
+     */
+    static final long DEFAULT_DURATION = 1000;
+
+    /**
+     * Pattern written to the include file of an empty shard, as surefire runs all the tests
+     * when the include file does not contain any pattern.
+     */
+    static final String NO_TEST = "mvntia/NoTest.java";
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    MavenSession session;
+
+    /**
+     * Number of shards.
+     */
+    @Parameter(property = "mvntia.shards", defaultValue = "1")
+    int count;
+
+    /**
+     * Directory where the include files are written.
+     */
+    @Parameter(property = "mvntia.shards.directory", defaultValue = "${project.build.directory}/mvntia-shards")
+    File directory;
+
+    /**
+     * Comma separated patterns of the simple names of the test classes, surefire defaults being used.
+     */
+    @Parameter(property = "mvntia.shards.includes", defaultValue = "Test*,*Test,*Tests,*TestCase")
+    String includes;
+
+    public void doExecute() throws Exception {
+        Set<String> tests = findTests(new File(project.getBuild().getTestOutputDirectory()).toPath(), includes);
+        String id = getProjectId();
+        int concurrency = session.getRequest().getDegreeOfConcurrency();
+        GitClient client = PrepareAgent.SERVERS.acquire(getServerKey(), Servers.getSessionId(session),
+                () -> new Server(createClient(), concurrency)).getClient();
+        Set<String> disabled = client.disabledTests(id, getDigest());
+        Map<String, TestStats> stats = client.getTestStats(id);
+
+        // tests never run are assumed to take the average duration of the module
+        long[] known = tests.stream().map(stats::get).filter(Objects::nonNull)
+                .mapToLong(s -> s.duration).filter(d -> d >= 0).toArray();
+        long unknown = known.length > 0 ? Arrays.stream(known).sum() / known.length : DEFAULT_DURATION;
+        Map<String, Long> durations = new TreeMap<>();
+        for (String test : tests) {
+            if (!disabled.contains(test)) {
+                TestStats s = stats.get(test);
+                durations.put(test, s != null && s.duration >= 0 ? s.duration : unknown);
+            }
+        }
+
+        List<List<String>> split = split(id, count, durations);
+        writeShards(directory.toPath(), split);
+        getLog().info("mvntia::shard(" + id + ") => " + durations.size() + " impacted tests out of " + tests.size()
+                + " split into " + split.size() + " shards: "
+                + split.stream().map(s -> s.stream().mapToLong(durations::get).sum() + "ms")
+                        .collect(Collectors.joining(", ")));
+    }
+
+    /**
+     * Splits the tests of a module.  The shards are rotated by a value derived from
+     * the module id, so that the longest tests of the modules do not all go to the
+     * first shard, while the split only depends on the module itself.
+     */
+    static List<List<String>> split(String id, int count, Map<String, Long> durations) {
+        List<List<String>> split = TestShards.split(count, durations);
+        Collections.rotate(split, Math.floorMod(id.hashCode(), count));
+        return split;
+    }
+
+    /**
+     * Writes the include file of each shard.
+     */
+    static void writeShards(Path directory, List<List<String>> split) throws IOException {
+        Files.createDirectories(directory);
+        for (int i = 0; i < split.size(); i++) {
+            List<String> lines = new ArrayList<>();
+            for (String test : split.get(i)) {
+                lines.add(test.replace('.', '/') + ".java");
+            }
+            if (lines.isEmpty()) {
+                lines.add(NO_TEST);
+            }
+            Files.write(directory.resolve("shard-" + (i + 1) + ".txt"), lines);
+        }
+    }
+
+    /**
+     * Lists the top level classes of the given directory whose simple name matches the patterns.
+     */
+    static Set<String> findTests(Path dir, String includes) throws IOException {
+        Set<String> tests = new TreeSet<>();
+        if (!Files.isDirectory(dir)) {
+            return tests;
+        }
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String include : includes.split(",")) {
+            if (!include.isBlank()) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + include.trim() + ".class"));
+            }
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.filter(Files::isRegularFile)
+                    .filter(f -> !f.getFileName().toString().contains("$"))
+                    .filter(f -> matchers.stream().anyMatch(m -> m.matches(f.getFileName())))
+                    .map(f -> dir.relativize(f).toString())
+                    .map(f -> f.substring(0, f.length() - ".class".length()).replace(File.separatorChar, '.'))
+                    .forEach(tests::add);
+        }
+        return tests;
+    }
+
+}
@@ -38,7 +38,10 @@ public class ShowReports extends AbstractTiaMojo {
     String file;
 
     public final void doExecute() throws Exception {
-        String notes = readNotes(createStorage());
+        String notes;
+        try (Storage storage = createStorage()) {
+            notes = readNotes(storage);
+        }
         if (notes == null) {
             getLog().warn("No report available in this branch");
             return;
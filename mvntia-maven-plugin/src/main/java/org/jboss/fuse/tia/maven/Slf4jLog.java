@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import org.apache.maven.plugin.logging.Log;
+import org.slf4j.Logger;
+
+/**
+ * Maven {@link Log} backed by an slf4j logger, used when no mojo logger is available.
+ */
+public class Slf4jLog implements Log {
+
+    private final Logger logger;
+
+    public Slf4jLog(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    @Override
+    public void debug(CharSequence content) {
+        logger.debug(String.valueOf(content));
+    }
+
+    @Override
+    public void debug(CharSequence content, Throwable error) {
+        logger.debug(String.valueOf(content), error);
+    }
+
+    @Override
+    public void debug(Throwable error) {
+        logger.debug(error.toString(), error);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return logger.isInfoEnabled();
+    }
+
+    @Override
+    public void info(CharSequence content) {
+        logger.info(String.valueOf(content));
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+        logger.info(String.valueOf(content), error);
+    }
+
+    @Override
+    public void info(Throwable error) {
+        logger.info(error.toString(), error);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return logger.isWarnEnabled();
+    }
+
+    @Override
+    public void warn(CharSequence content) {
+        logger.warn(String.valueOf(content));
+    }
+
+    @Override
+    public void warn(CharSequence content, Throwable error) {
+        logger.warn(String.valueOf(content), error);
+    }
+
+    @Override
+    public void warn(Throwable error) {
+        logger.warn(error.toString(), error);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return logger.isErrorEnabled();
+    }
+
+    @Override
+    public void error(CharSequence content) {
+        logger.error(String.valueOf(content));
+    }
+
+    @Override
+    public void error(CharSequence content, Throwable error) {
+        logger.error(String.valueOf(content), error);
+    }
+
+    @Override
+    public void error(Throwable error) {
+        logger.error(error.toString(), error);
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.jboss.fuse.tia.reports.GitClient;
+import org.jboss.fuse.tia.reports.GitStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts the mvntia server as soon as the projects have been read, and
+ * releases the servers at the end of the build session.
+ *
+ * Starting the server early allows the test reports to be loaded in the
+ * background while maven resolves dependencies and compiles the first
+ * modules.  As the end of the session is known, the reports of all the
+ * modules are written together at that time (or every
+ * <code>mvntia.flushDelay</code> seconds during long builds) rather than
+ * once per module.
+ *
+ * This participant is only active when the plugin is declared with
+ * <code>&lt;extensions&gt;true&lt;/extensions&gt;</code>.  Servers are shut
+ * down at the end of the session, unless running inside the mvnd daemon or
+ * if the <code>mvntia.keepAlive</code> property is set, in which case they are
+ * kept for the next builds and only released when evicted.
+ */
+@Named("mvntia")
+@Singleton
+public class TiaLifecycleParticipant extends AbstractMavenLifecycleParticipant {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TiaLifecycleParticipant.class);
+
+    static final String PLUGIN_KEY = "org.jboss.fuse.mvntia:mvntia-maven-plugin";
+
+    // only read here, without the extension the reports are written after each module
+    static final String DEFAULT_FLUSH_DELAY = "60";
+
+    @Override
+    public void afterProjectsRead(MavenSession session) {
+        try {
+            MavenProject project = session.getTopLevelProject();
+            if (Boolean.parseBoolean(getParameter(session, project, "skip", PrepareAgent.DEFAULT_SKIP))) {
+                return;
+            }
+            String gitNotesRef = getParameter(session, project, "git.notes.ref", GitStorage.GIT_NOTES_REF);
+            String storage = getParameter(session, project, "storage", AbstractTiaMojo.DEFAULT_STORAGE);
+            String remoteUrl = getParameter(session, project, "remote.url", null);
+            boolean remoteUpload = Boolean.parseBoolean(
+                    getParameter(session, project, "remote.upload", AbstractTiaMojo.DEFAULT_REMOTE_UPLOAD));
+            String remoteToken = getParameter(session, project, "remote.token", null);
+            boolean watch = Boolean.parseBoolean(getParameter(session, project, "watch", AbstractTiaMojo.DEFAULT_WATCH));
+            int maxChainLength = Integer.parseInt(
+                    getParameter(session, project, "maxChainLength", AbstractTiaMojo.DEFAULT_MAX_CHAIN_LENGTH));
+            boolean overlay = Boolean.parseBoolean(getParameter(session, project, "overlay", AbstractTiaMojo.DEFAULT_OVERLAY));
+            File dir = session.getRequest().getMultiModuleProjectDirectory();
+            String executionDir = AbstractTiaMojo.findGitRoot(dir != null ? dir : new File("."));
+            int concurrency = session.getRequest().getDegreeOfConcurrency();
+            Server server = PrepareAgent.SERVERS.acquire(AbstractTiaMojo.getServerKey(executionDir, gitNotesRef, storage),
+                    Servers.getSessionId(session),
+                    () -> new Server(new GitClient(
+                            AbstractTiaMojo.createStorage(executionDir, gitNotesRef, storage,
+                                    remoteUrl, remoteUpload, remoteToken, watch, maxChainLength, overlay),
+                            new Slf4jLog(LOGGER)), concurrency));
+            server.setConcurrency(concurrency);
+            // reports are written at the end of the session
+            long flushDelay = Long.parseLong(getParameter(session, project, "flushDelay", DEFAULT_FLUSH_DELAY));
+            server.getClient().setFlushDelay(TimeUnit.SECONDS.toMillis(flushDelay));
+        } catch (Exception e) {
+            // the server will be created by the prepare-agent goal if needed
+            LOGGER.debug("Unable to start mvntia server", e);
+        }
+    }
+
+    @Override
+    public void afterSessionEnd(MavenSession session) {
+        PrepareAgent.SERVERS.release(Servers.getSessionId(session), isKeepAlive(session));
+    }
+
+    static boolean isKeepAlive(MavenSession session) {
+        String keepAlive = getProperty(session, "mvntia.keepAlive");
+        if (keepAlive != null) {
+            return Boolean.parseBoolean(keepAlive);
+        }
+        return System.getProperty("mvnd.home") != null;
+    }
+
+    /**
+     * Retrieves a mojo parameter from the session properties, or from the
+     * plugin configuration of the given project.
+     */
+    static String getParameter(MavenSession session, MavenProject project, String name, String defaultValue) {
+        String value = getProperty(session, "mvntia." + name);
+        if (value == null && project != null) {
+            Plugin plugin = project.getPlugin(PLUGIN_KEY);
+            if (plugin != null && plugin.getConfiguration() instanceof Xpp3Dom) {
+                Xpp3Dom child = ((Xpp3Dom) plugin.getConfiguration()).getChild(toFieldName(name));
+                value = child != null ? child.getValue() : null;
+            }
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    static String toFieldName(String name) {
+        StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+        for (char c : name.toCharArray()) {
+            if (c == '.') {
+                upper = true;
+            } else {
+                sb.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    static String getProperty(MavenSession session, String name) {
+        String value = session.getUserProperties().getProperty(name);
+        return value != null ? value : session.getSystemProperties().getProperty(name);
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the dirty paths of a git working tree using a {@link WatchService}.
+ * The tracker is meant to be kept alive across builds (for example in the mvnd
+ * daemon), so that the repository status is only recomputed for the paths that
+ * have actually changed since the previous build.
+ */
+public class ChangeTracker implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeTracker.class);
+
+    private static final Set<String> GIT_FILES = Set.of("HEAD", "index", "packed-refs");
+
+    final Path workTree;
+    final Map<Path, WatchKey> keys = new HashMap<>();
+    final Set<String> changed = new TreeSet<>();
+    WatchService watchService;
+    boolean rescan = true;
+    // set when the working tree cannot be watched, a full status being computed on each call
+    boolean unwatched;
+    // ignored paths found by the last full status, which are not watched
+    Set<String> ignored = Set.of();
+
+    ObjectId head;
+    Set<String> uncommitted;
+
+    ObjectId historyHead;
+    ObjectId historyNotes;
+    Storage.State history;
+
+    public ChangeTracker(Path workTree) {
+        this.workTree = workTree.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns the set of uncommitted (or untracked) paths, relative to the working tree.
+     * A full status is only computed on the first call, when HEAD has moved or when
+     * the git index has been modified, otherwise only the paths reported by the
+     * watch service are refreshed.
+     */
+    public synchronized Set<String> getUncommitted(Git git, ObjectId headId) throws IOException, GitAPIException {
+        poll();
+        if (rescan || uncommitted == null || !Objects.equals(head, headId)) {
+            // watch before computing the status, so that no modification is missed in between
+            watch(git.getRepository().getDirectory().toPath());
+            Status status = git.status().call();
+            uncommitted = new TreeSet<>();
+            uncommitted.addAll(status.getUncommittedChanges());
+            uncommitted.addAll(status.getUntracked());
+            head = headId;
+            changed.clear();
+            rescan = false;
+            ignored = status.getIgnoredNotInIndex();
+            unregister(ignored);
+        } else if (!changed.isEmpty()) {
+            LOGGER.debug("Refreshing status of {} changed paths", changed.size());
+            StatusCommand command = git.status();
+            for (String path : changed) {
+                command.addPath(path);
+                uncommitted.removeIf(p -> p.equals(path) || p.startsWith(path + "/"));
+            }
+            Status status = command.call();
+            uncommitted.addAll(status.getUncommittedChanges());
+            uncommitted.addAll(status.getUntracked());
+            unregister(status.getIgnoredNotInIndex());
+            changed.clear();
+        }
+        return new TreeSet<>(uncommitted);
+    }
+
+    /**
+     * Returns the notes related part of the state computed for the given HEAD and
+     * notes ref, or <code>null</code> if either one has moved since.
+     */
+    public synchronized Storage.State getHistory(ObjectId headId, ObjectId notesId) {
+        return history != null && Objects.equals(historyHead, headId) && Objects.equals(historyNotes, notesId)
+                ? history : null;
+    }
+
+    public synchronized void setHistory(ObjectId headId, ObjectId notesId, Storage.State history) {
+        this.historyHead = headId;
+        this.historyNotes = notesId;
+        this.history = history;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+        keys.clear();
+        uncommitted = null;
+        history = null;
+    }
+
+    void poll() {
+        if (watchService == null) {
+            rescan = true;
+            return;
+        }
+        try {
+            WatchKey key;
+            while ((key = watchService.poll()) != null) {
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan = true;
+                    } else if (!dir.startsWith(workTree) || dir.getFileName().toString().equals(".git")) {
+                        if (GIT_FILES.contains(event.context().toString())) {
+                            rescan = true;
+                        }
+                    } else {
+                        Path path = dir.resolve((Path) event.context());
+                        changed.add(relativize(path));
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                            registerAll(path, Set.of());
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    keys.remove(dir);
+                }
+            }
+        } catch (ClosedWatchServiceException | IOException e) {
+            LOGGER.debug("Error watching working tree, falling back to a full status", e);
+            rescan = true;
+        }
+    }
+
+    void watch(Path gitDir) {
+        if (unwatched) {
+            return;
+        }
+        try {
+            register(gitDir, ignored);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to watch git working tree {}, falling back to a full status: {}", workTree, e.toString());
+            unwatched = true;
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException ex) {
+                    LOGGER.debug("Error closing watch service", ex);
+                }
+                watchService = null;
+            }
+            keys.clear();
+        }
+    }
+
+    void register(Path gitDir, Set<String> ignored) throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            LOGGER.info("Watching git working tree {}", workTree);
+        }
+        register(gitDir);
+        registerAll(workTree, ignored);
+    }
+
+    void registerAll(Path root, Set<String> ignored) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.getFileName() != null && dir.getFileName().toString().equals(".git")
+                        || ignored.contains(relativize(dir))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    void register(Path dir) throws IOException {
+        if (!keys.containsKey(dir)) {
+            keys.put(dir, dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY));
+        }
+    }
+
+    void unregister(Set<String> ignored) {
+        if (!ignored.isEmpty()) {
+            keys.entrySet().removeIf(e -> {
+                String path = relativize(e.getKey());
+                if (ignored.stream().anyMatch(i -> path.equals(i) || path.startsWith(i + "/"))) {
+                    e.getValue().cancel();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    String relativize(Path path) {
+        return workTree.relativize(path).toString().replace('\\', '/');
+    }
+
+}
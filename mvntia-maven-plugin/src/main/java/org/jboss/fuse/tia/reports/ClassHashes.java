@@ -0,0 +1,228 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Computes hashes of the compiled classes found on a class path, made of
+ * directories and jars.  The hash of a class covers its inner classes too,
+ * so that a test can be identified by the bytecode of the classes it uses.
+ */
+public class ClassHashes {
+
+    /**
+     * Prefix of the entries holding a hash in the referenced classes of a test.
+     */
+    public static final String PREFIX = "#";
+
+    static final String MISSING = "-";
+
+    static class Entry {
+        final long lastModified;
+        final long size;
+        final Object value;
+
+        Entry(long lastModified, long size, Object value) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.value = value;
+        }
+    }
+
+    final List<File> classPath;
+    // hashes of class files and indexes of jars, invalidated when the file changes
+    final Map<File, Entry> cache = new ConcurrentHashMap<>();
+
+    public ClassHashes(List<File> classPath) {
+        this.classPath = classPath;
+    }
+
+    public List<File> getClassPath() {
+        return classPath;
+    }
+
+    /**
+     * Computes the hash of a test, covering the test class and the given classes.
+     */
+    public String hash(String test, Collection<String> classes) throws IOException {
+        Set<String> names = new TreeSet<>();
+        names.add(test);
+        for (String clazz : classes) {
+            if (isClass(clazz)) {
+                names.add(clazz);
+            }
+        }
+        MessageDigest digest = newDigest();
+        for (String name : names) {
+            digest.update((name + "=" + hashClass(name) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the hash of a class and its inner classes, using the first
+     * class path element containing the class.
+     */
+    public String hashClass(String name) throws IOException {
+        int idx = name.indexOf('$');
+        String outer = idx > 0 ? name.substring(0, idx) : name;
+        String path = outer.replace('.', '/');
+        for (File element : classPath) {
+            Map<String, String> files = element.isDirectory() ? listDirectory(element, path)
+                    : element.isFile() ? listJar(element, path) : Map.of();
+            if (!files.isEmpty()) {
+                MessageDigest digest = newDigest();
+                for (Map.Entry<String, String> e : files.entrySet()) {
+                    digest.update((e.getKey() + "=" + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                return toHex(digest.digest());
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Returns the hashes of the class files of the given class and its inner classes.
+     */
+    Map<String, String> listDirectory(File dir, String path) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        Path file = dir.toPath().resolve(path + ".class");
+        if (Files.isRegularFile(file)) {
+            files.put(file.getFileName().toString(), hashFile(file.toFile()));
+            String prefix = file.getFileName().toString().replace(".class", "$");
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), prefix + "*.class")) {
+                for (Path inner : stream) {
+                    files.put(inner.getFileName().toString(), hashFile(inner.toFile()));
+                }
+            }
+        }
+        return files;
+    }
+
+    Map<String, String> listJar(File jar, String path) throws IOException {
+        return getJarIndex(jar).getOrDefault(path, Map.of());
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Map<String, String>> getJarIndex(File jar) throws IOException {
+        Entry entry = cache.get(jar);
+        if (entry == null || entry.lastModified != jar.lastModified() || entry.size != jar.length()) {
+            long lastModified = jar.lastModified();
+            long size = jar.length();
+            // outer class path -> class file name -> hash
+            Map<String, Map<String, String>> index = new HashMap<>();
+            try (JarFile jarFile = new JarFile(jar)) {
+                for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                    JarEntry e = entries.nextElement();
+                    String name = e.getName();
+                    if (!name.endsWith(".class") || e.isDirectory()) {
+                        continue;
+                    }
+                    String className = name.substring(0, name.length() - ".class".length());
+                    int idx = className.indexOf('$', className.lastIndexOf('/') + 1);
+                    String outer = idx > 0 ? className.substring(0, idx) : className;
+                    try (InputStream is = jarFile.getInputStream(e)) {
+                        index.computeIfAbsent(outer, o -> new TreeMap<>())
+                                .put(name.substring(name.lastIndexOf('/') + 1), hashBytes(is.readAllBytes()));
+                    }
+                }
+            }
+            entry = new Entry(lastModified, size, index);
+            cache.put(jar, entry);
+        }
+        return (Map<String, Map<String, String>>) entry.value;
+    }
+
+    String hashFile(File file) throws IOException {
+        Entry entry = cache.get(file);
+        if (entry == null || entry.lastModified != file.lastModified() || entry.size != file.length()) {
+            long lastModified = file.lastModified();
+            long size = file.length();
+            entry = new Entry(lastModified, size, hashBytes(Files.readAllBytes(file.toPath())));
+            cache.put(file, entry);
+        }
+        return (String) entry.value;
+    }
+
+    protected String hashBytes(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    /**
+     * Returns the hash recorded in the given referenced classes, or <code>null</code>.
+     */
+    public static String getHash(Collection<String> classes) {
+        for (String clazz : classes) {
+            if (clazz.startsWith(PREFIX)) {
+                return clazz.substring(PREFIX.length());
+            }
+        }
+        return null;
+    }
+
+    public static boolean isClass(String clazz) {
+        return !clazz.startsWith(PREFIX) && !Dependencies.isDependency(clazz) && !ImpactIndex.isResource(clazz)
+                && !TestStats.isStat(clazz);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o != null && o.getClass() == getClass() && Objects.equals(classPath, ((ClassHashes) o).classPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classPath);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to create SHA-1", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+}
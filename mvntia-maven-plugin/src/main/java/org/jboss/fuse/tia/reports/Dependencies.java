@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Helpers to track the external dependencies used by each test.
+ *
+ * The digest of a project is the list of its artifacts, each one being
+ * <code>groupId:artifactId:type[:classifier]:version:scope</code>.  An artifact
+ * is identified by its key, which is the same string without the version and
+ * scope.  The referenced classes of a test contain the keys of the external
+ * dependencies it used, prefixed with {@link #PREFIX}, along with the prefix
+ * alone as a marker telling that dependencies were tracked for the test.
+ */
+public final class Dependencies {
+
+    /**
+     * Prefix of the entries holding a dependency in the referenced classes of a test.
+     */
+    public static final String PREFIX = "@";
+
+    private Dependencies() {
+    }
+
+    /**
+     * Returns the key of an artifact, i.e. the artifact without its version and scope.
+     */
+    public static String getKey(String artifact) {
+        String[] parts = artifact.split(":");
+        int length = parts.length >= 5 ? parts.length - 2 : parts.length >= 4 ? parts.length - 1 : parts.length;
+        return String.join(":", Arrays.copyOf(parts, length));
+    }
+
+    /**
+     * Returns the artifacts of a digest, indexed by their key.
+     */
+    public static Map<String, String> parse(String digest) {
+        Map<String, String> artifacts = new TreeMap<>();
+        for (String artifact : digest.trim().split("\\s+")) {
+            if (!artifact.isEmpty()) {
+                artifacts.put(getKey(artifact), artifact);
+            }
+        }
+        return artifacts;
+    }
+
+    /**
+     * Returns the keys of the artifacts which have been added, removed or
+     * modified between two digests.
+     */
+    public static Set<String> getChanged(String digest1, String digest2) {
+        Map<String, String> a1 = parse(digest1);
+        Map<String, String> a2 = parse(digest2);
+        Set<String> changed = new TreeSet<>(a1.keySet());
+        changed.addAll(a2.keySet());
+        changed.removeIf(key -> Objects.equals(a1.get(key), a2.get(key)));
+        return changed;
+    }
+
+    /**
+     * Checks if a test may be impacted by the changed artifacts, which is
+     * always the case if its dependencies have not been tracked.
+     */
+    public static boolean isImpacted(Collection<String> classes, Set<String> changed) {
+        if (changed.isEmpty()) {
+            return false;
+        }
+        if (!classes.contains(PREFIX)) {
+            return true;
+        }
+        for (String key : changed) {
+            if (classes.contains(PREFIX + key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean isDependency(String clazz) {
+        return clazz.startsWith(PREFIX);
+    }
+
+}
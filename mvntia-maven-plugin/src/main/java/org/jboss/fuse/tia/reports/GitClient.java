@@ -15,7 +15,12 @@
  */
 package org.jboss.fuse.tia.reports;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -24,8 +29,14 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -35,59 +46,217 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
-public class GitClient implements Client {
+public class GitClient implements Client, Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GitClient.class);
 
     final Storage storage;
     final Log logger;
-    final CountDownLatch initialized = new CountDownLatch(1);
+    volatile CountDownLatch initialized = new CountDownLatch(1);
+    final Object initLock = new Object();
 
     Storage.State state;
-    final Map<String, String> digests = new HashMap<>();
-    final Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
-    final Map<String, Map<String, Set<String>>> temporary = new HashMap<>();
+    // Reports and digests currently in use, replaced as a whole and never modified once published
+    volatile Snapshot snapshot = new Snapshot(new TreeMap<>(), new TreeMap<>());
+    final Map<String, Map<String, Set<String>>> temporary = new ConcurrentHashMap<>();
+    // Reports of the tests skipped because their bytecode is unchanged
+    final Map<String, Map<String, Set<String>>> unchanged = new ConcurrentHashMap<>();
+    // Guards the publication of new snapshots and the fields below
+    final Object lock = new Object();
 
-    static final Map<String, Log> LOGGERS = new ConcurrentHashMap<>();
+    // Reports parsed from the last note, kept across sessions
+    String loadedNote;
+    Map<String, Map<String, Set<String>>> loadedReports = new TreeMap<>();
+    Map<String, String> loadedDigests = new HashMap<>();
+    ImpactIndex index;
+    volatile long estimatedSize;
+
+    // Notes are written by a single thread, concurrent writes being grouped together
+    final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mvntia-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    CompletableFuture<String> pendingWrite;
+    ScheduledFuture<?> pendingTask;
+    boolean dirty;
+    // whether reports have been recorded since the snapshot was computed
+    boolean recorded;
+    volatile long flushDelay;
+
+    final Map<String, Log> loggers = new ConcurrentHashMap<>();
+    final Map<String, ClassHashes> classHashes = new ConcurrentHashMap<>();
+    // location -> key of the tracked external dependencies of each project
+    final Map<String, Map<String, String>> dependencies = new ConcurrentHashMap<>();
+    // static analysis of the classes used by the tests of each project
+    final Map<String, StaticDependencies> staticDependencies = new ConcurrentHashMap<>();
+    // projects whose tests dependencies are computed by the static analysis
+    final Set<String> staticClosures = ConcurrentHashMap.newKeySet();
+    // projects whose tests dependencies include the constants and annotations
+    final Set<String> staticConstants = ConcurrentHashMap.newKeySet();
+    // time budget used to re-run skipped tests, in milliseconds
+    final Map<String, Long> budgets = new ConcurrentHashMap<>();
+    // skipped tests re-run to refresh their reports
+    final Map<String, Set<String>> refreshed = new ConcurrentHashMap<>();
+    // classes used by the JVMs started by the tests, until the tests are reported
+    final Map<String, Map<String, Set<String>>> children = new ConcurrentHashMap<>();
+
+    static class Snapshot {
+        final Map<String, Map<String, Set<String>>> reports;
+        final Map<String, String> digests;
+        // projects whose reports have been recorded since the snapshot was loaded
+        final Set<String> recorded;
+        // tests impacted by modified files which are not java sources, per project
+        final Map<String, Set<String>> impactedByResources;
+
+        Snapshot(Map<String, Map<String, Set<String>>> reports, Map<String, String> digests) {
+            this(reports, digests, Set.of(), Map.of());
+        }
+
+        Snapshot(Map<String, Map<String, Set<String>>> reports, Map<String, String> digests,
+                 Set<String> recorded, Map<String, Set<String>> impactedByResources) {
+            this.reports = reports;
+            this.digests = digests;
+            this.recorded = recorded;
+            this.impactedByResources = impactedByResources;
+        }
+
+        Snapshot with(String projectId, Map<String, Set<String>> report, String digest) {
+            Map<String, Map<String, Set<String>>> r = new TreeMap<>(reports);
+            r.put(projectId, report);
+            Map<String, String> d = new TreeMap<>(digests);
+            d.put(projectId, digest);
+            Set<String> p = new TreeSet<>(recorded);
+            p.add(projectId);
+            return new Snapshot(r, d, p, impactedByResources);
+        }
+    }
 
     public GitClient(Storage storage, Log logger) {
         this.storage = storage;
         this.logger = logger;
-        initialize();
+        initializeAsync();
+    }
+
+    /**
+     * Starts the initialization on a background thread, so that the git work
+     * overlaps with the rest of the build.  Requests which need the reports
+     * wait for the initialization to complete.
+     */
+    public void initializeAsync() {
+        CountDownLatch latch = new CountDownLatch(1);
+        initialized = latch;
+        clearTemporary();
+        Thread thread = new Thread(() -> doInitialize(latch), "mvntia-init");
+        thread.setDaemon(true);
+        thread.start();
     }
 
+    /**
+     * Loads the test reports and computes the tests impacted by the modified files.
+     * When called again (for example for a new build in a long-lived daemon), the
+     * parsed reports and the impact index are reused if the note has not changed,
+     * and nothing is recomputed at all if the repository state is the same.
+     */
     public void initialize() {
-        state = null;
+        CountDownLatch latch = new CountDownLatch(1);
+        initialized = latch;
+        clearTemporary();
+        doInitialize(latch);
+    }
+
+    /**
+     * Waits for the initialization to complete.
+     */
+    public void awaitInitialized() throws InterruptedException {
+        initialized.await();
+    }
+
+    // reports may be received before the initialization completes, so
+    // the temporary ones are discarded before starting it
+    void clearTemporary() {
+        temporary.clear();
+        unchanged.clear();
+        refreshed.clear();
+        children.clear();
+    }
+
+    void doInitialize(CountDownLatch latch) {
+        synchronized (initLock) {
+            try {
+                // reports recorded by a previous build must be written before reloading
+                flush();
+                load();
+            } finally {
+                latch.countDown();
+            }
+        }
+    }
+
+    void load() {
         try {
             // Check storage state
+            Storage.State previous = state;
             state = storage.getState();
             if (state == null) {
                 LOGGER.warn("Git not set up properly, ignoring TIA...");
+                snapshot = new Snapshot(new TreeMap<>(), new TreeMap<>());
                 return;
+            } else if (state.overlay) {
+                LOGGER.info("Git is dirty, TIA results will be stored in the local overlay");
             } else if (!state.uncommitted.isEmpty()) {
                 LOGGER.warn("Git is dirty, TIA results won't be stored...");
             }
+            synchronized (lock) {
+                // reports recorded since are not impacted by the modified files
+                if (state.equals(previous) && !recorded) {
+                    LOGGER.info("Repository state unchanged, reusing test reports");
+                    return;
+                }
+                recorded = false;
+            }
             // Load existing test reports
             int nbModified;
-            int nbImpacted;
-            synchronized (reports) {
-                Reports.loadReports(state.note, reports, digests);
+            int nbImpacted = 0;
+            synchronized (lock) {
+                if (!Objects.equals(loadedNote, state.note)) {
+                    loadedReports = new TreeMap<>();
+                    loadedDigests = new HashMap<>();
+                    Reports.loadReports(state.note, loadedReports, loadedDigests);
+                    loadedNote = state.note;
+                    index = null;
+                }
+                if (index == null) {
+                    index = new ImpactIndex(loadedReports);
+                    updateEstimatedSize();
+                }
                 // Load modified files
                 Set<String> modified = new TreeSet<>();
                 if (state.modified != null) {
                     modified.addAll(state.modified);
                 }
-                if (state.uncommitted != null) {
+                // with an overlay, the uncommitted files are already part of the modified ones
+                if (state.uncommitted != null && !state.overlay) {
                     modified.addAll(state.uncommitted);
                 }
-                modified = modified.stream()
-                        .filter(file -> file.endsWith(".java"))
-                        .collect(Collectors.toSet());
                 logger.debug("Modified files: " + modified);
-                int countBefore = reports.values().stream().mapToInt(Map::size).sum();
-                removeTestsImpactedBy(reports, modified);
-                int countAfter = reports.values().stream().mapToInt(Map::size).sum();
-                nbImpacted = countBefore - countAfter;
+                // only the reports of the impacted projects need to be copied
+                Map<String, Map<String, Set<String>>> reports = new TreeMap<>(loadedReports);
+                for (Map.Entry<String, Set<String>> e : index.getImpactedTests(modified).entrySet()) {
+                    Map<String, Set<String>> r = reports.get(e.getKey());
+                    if (r != null) {
+                        r = new TreeMap<>(r);
+                        int count = r.size();
+                        r.keySet().removeAll(e.getValue());
+                        nbImpacted += count - r.size();
+                        reports.put(e.getKey(), r);
+                    }
+                }
+                // the bytecode hashes do not cover the resources, see getUnchangedTests
+                Map<String, Set<String>> impactedByResources = index.getImpactedTests(modified.stream()
+                        .filter(f -> !f.endsWith(".java"))
+                        .collect(Collectors.toList()));
+                snapshot = new Snapshot(reports, new TreeMap<>(loadedDigests), Set.of(), impactedByResources);
                 nbModified = modified.size();
             }
             LOGGER.info(nbImpacted + " tests impacted by " + nbModified + " modified files");
@@ -97,18 +266,12 @@ public class GitClient implements Client {
             } else {
                 LOGGER.warn("Unable to load test reports: " + e.toString());
             }
-        } finally {
-            initialized.countDown();
         }
     }
 
     public void removeTestsImpactedBy(Map<String, Map<String, Set<String>>> reports, Set<String> modified) {
-        Set<String> m = modified.stream()
-                .map(this::fileWithoutExtension)
-                .collect(Collectors.toSet());
-        Map<String, String> toPath = new ConcurrentHashMap<>();
-        reports.values().forEach(r -> r.entrySet()
-                .removeIf(e -> isImpactedBy(e.getKey(), e.getValue(), m, toPath)));
+        new ImpactIndex(reports).getImpactedTests(modified)
+                .forEach((p, tests) -> reports.get(p).keySet().removeAll(tests));
     }
 
     /**
@@ -134,11 +297,6 @@ public class GitClient implements Client {
         return name.replaceAll("\\.", "/");
     }
 
-    private String fileWithoutExtension(String statusFile) {
-        int index = statusFile.lastIndexOf(".");
-        return index > -1 ? statusFile.substring(0, index) : statusFile;
-    }
-
     private String getParentClassName(String className) {
         int innerClassIndex = className.indexOf("$");
         return innerClassIndex > -1 ? className.substring(0, innerClassIndex) : className;
@@ -150,19 +308,38 @@ public class GitClient implements Client {
             Log logger = getLog(projectId);
             // Find out which tests can be skipped
             // disabled tests are those which are not impacted by any modified files
+            Snapshot snapshot = this.snapshot;
             Set<String> disabled;
-            synchronized (reports) {
-                Map<String, Set<String>> report = reports.computeIfAbsent(projectId, p -> new TreeMap<>());
-                String prevDigest = digests.get(projectId);
-                if (prevDigest == null) {
-                    disabled = new HashSet<>();
-                    logger.info("mvntia::disabledTests(" + projectId + ") => no previous run");
-                } else if (Objects.equals(digest, prevDigest)) {
-                    disabled = report.keySet();
-                    logger.info("mvntia::disabledTests(" + projectId + ") => " + disabled.size() + " tests disabled");
-                } else {
-                    disabled = new HashSet<>();
-                    logger.info("mvntia::disabledTests(" + projectId + ") => dependencies have changed from [" + prevDigest + " ] to [" + digest + "]");
+            String prevDigest = snapshot.digests.get(projectId);
+            if (prevDigest == null) {
+                disabled = new HashSet<>();
+                logger.info("mvntia::disabledTests(" + projectId + ") => no previous run");
+            } else {
+                // only the tests using a changed dependency are impacted, or all the tests
+                // if the dependencies have not been tracked
+                Set<String> changed = Objects.equals(digest, prevDigest) ? Set.of() : Dependencies.getChanged(prevDigest, digest);
+                if (!changed.isEmpty()) {
+                    logger.info("mvntia::disabledTests(" + projectId + ") => dependencies have changed: " + changed);
+                }
+                disabled = new HashSet<>();
+                for (Map.Entry<String, Set<String>> entry : snapshot.reports.getOrDefault(projectId, Map.of()).entrySet()) {
+                    // a test which failed is run until it passes
+                    if (!Dependencies.isImpacted(entry.getValue(), changed) && !TestStats.hasFailed(entry.getValue())) {
+                        disabled.add(entry.getKey());
+                    }
+                }
+                ClassHashes hashes = classHashes.get(projectId);
+                Set<String> unchanged = hashes != null ? getUnchangedTests(projectId, hashes, disabled, changed,
+                        snapshot.impactedByResources.getOrDefault(projectId, Set.of())) : Set.of();
+                disabled.addAll(unchanged);
+                long budget = budgets.getOrDefault(projectId, 0L);
+                Set<String> stale = budget > 0 ? getStaleTests(projectId, disabled, budget) : Set.of();
+                disabled.removeAll(stale);
+                logger.info("mvntia::disabledTests(" + projectId + ") => " + disabled.size() + " tests disabled"
+                        + (unchanged.isEmpty() ? "" : " (" + unchanged.size() + " with unchanged bytecode)"));
+                if (!stale.isEmpty()) {
+                    logger.info("mvntia::disabledTests(" + projectId + ") re-running " + stale.size()
+                            + " tests skipped for the longest time: " + stale);
                 }
             }
             return disabled;
@@ -171,42 +348,263 @@ public class GitClient implements Client {
         }
     }
 
+    /**
+     * Finds the impacted tests which can still be skipped because the bytecode of
+     * the test and its referenced classes is the same as when it last passed.
+     * Their reports are kept so that they are written along with the new ones.
+     * The hashes only cover the classes, so the tests impacted by a modified
+     * resource are always run.
+     */
+    Set<String> getUnchangedTests(String projectId, ClassHashes hashes, Set<String> disabled, Set<String> changed,
+                                  Set<String> impactedByResources) {
+        Map<String, Set<String>> reports;
+        synchronized (lock) {
+            reports = loadedReports.getOrDefault(projectId, Map.of());
+        }
+        Map<String, Set<String>> unchanged = new TreeMap<>();
+        for (Map.Entry<String, Set<String>> entry : reports.entrySet()) {
+            String test = entry.getKey();
+            Set<String> classes = entry.getValue();
+            if (disabled.contains(test) || impactedByResources.contains(test) || ClassHashes.getHash(classes) == null
+                    || Dependencies.isImpacted(classes, changed) || TestStats.hasFailed(classes)) {
+                continue;
+            }
+            try {
+                if (classes.contains(ClassHashes.PREFIX + hashes.hash(test, classes))) {
+                    unchanged.put(test, classes);
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Unable to compute the hash of test " + test, e);
+            }
+        }
+        if (!unchanged.isEmpty()) {
+            this.unchanged.put(projectId, unchanged);
+        }
+        return unchanged.keySet();
+    }
+
+    /**
+     * Selects the disabled tests which have not been run for the longest time
+     * and fit in the given time budget, so that their reports are refreshed.
+     * The stalest test is always selected, even if it does not fit.
+     */
+    Set<String> getStaleTests(String projectId, Set<String> disabled, long budget) throws InterruptedException {
+        Map<String, TestStats> stats = getTestStats(projectId);
+        List<String> candidates = disabled.stream()
+                .filter(stats::containsKey)
+                .sorted(Comparator.comparingLong((String test) -> stats.get(test).verified)
+                        .thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.toList());
+        Set<String> stale = new TreeSet<>();
+        long used = 0;
+        for (String test : candidates) {
+            used += Math.max(stats.get(test).duration, 0);
+            if (used > budget && !stale.isEmpty()) {
+                break;
+            }
+            stale.add(test);
+        }
+        if (!stale.isEmpty()) {
+            refreshed.put(projectId, stale);
+        }
+        return stale;
+    }
+
     public void addReport(String projectId, String test, Collection<String> classes) {
         try {
-            initialized.await();
             Log logger = getLog(projectId);
             logger.info("mvntia::addReport(" + projectId + ", " + test + ", [" + classes.size() + " classes])");
-            synchronized (temporary) {
+            Map<String, Set<String>> pending = children.get(projectId);
+            Set<String> child = pending != null ? pending.get(test) : null;
+            if (child != null) {
+                Set<String> all = new TreeSet<>(classes);
+                all.addAll(child);
+                classes = all;
+            }
+            StaticDependencies analyzer = staticDependencies.get(projectId);
+            if (analyzer != null) {
+                Set<String> all = new TreeSet<>(classes);
+                if (staticClosures.contains(projectId)) {
+                    all.addAll(analyzer.getDependencies(test));
+                }
+                if (staticConstants.contains(projectId)) {
+                    all.addAll(analyzer.getConstantDependencies(test, all));
+                }
+                classes = all;
+            }
+            Set<String> recorded = toEntries(projectId, classes);
+            if (dependencies.get(projectId) != null) {
+                recorded.add(Dependencies.PREFIX);
+            }
+            ClassHashes hashes = classHashes.get(projectId);
+            if (hashes != null) {
+                recorded.add(ClassHashes.PREFIX + hashes.hash(test, classes));
+            }
+            Set<String> late;
+            synchronized (children) {
                 temporary
                         .computeIfAbsent(projectId, p -> new ConcurrentHashMap<>())
-                        .computeIfAbsent(test, t -> new TreeSet<>())
-                        .addAll(classes);
+                        .merge(test, recorded, Reports::union);
+                pending = children.get(projectId);
+                late = pending != null ? pending.remove(test) : null;
+            }
+            if (late != null && (child == null || !child.containsAll(late))) {
+                addChildReport(projectId, test, late);
             }
         } catch (Exception e) {
             throw new RuntimeException("Error adding report", e);
         }
     }
 
+    /**
+     * Records the classes used by a JVM started by a test.  They are added to
+     * the report of the test if it succeeds, and discarded otherwise.
+     */
+    public void addChildReport(String projectId, String test, Collection<String> classes) {
+        try {
+            Log logger = getLog(projectId);
+            logger.info("mvntia::addChildReport(" + projectId + ", " + test + ", [" + classes.size() + " classes])");
+            synchronized (children) {
+                Map<String, Set<String>> reports = temporary.get(projectId);
+                Set<String> reported = reports != null ? reports.get(test) : null;
+                if (reported == null || reported.stream().allMatch(TestStats::isStat)) {
+                    children.computeIfAbsent(projectId, p -> new ConcurrentHashMap<>())
+                            .merge(test, new TreeSet<>(classes), Reports::union);
+                    return;
+                }
+                // the JVM outlived the test, which has already been reported
+                Set<String> merged = new TreeSet<>(reported);
+                merged.removeIf(c -> c.startsWith(ClassHashes.PREFIX));
+                merged.addAll(toEntries(projectId, classes));
+                ClassHashes hashes = classHashes.get(projectId);
+                if (hashes != null) {
+                    merged.add(ClassHashes.PREFIX + hashes.hash(test, merged));
+                }
+                reports.put(test, merged);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Error adding child report", e);
+        }
+    }
+
+    /**
+     * Converts the classes reported by the agent to the recorded entries, replacing the
+     * locations of the tracked external dependencies with their keys.
+     */
+    Set<String> toEntries(String projectId, Collection<String> classes) {
+        Set<String> recorded = new TreeSet<>();
+        Map<String, String> deps = dependencies.get(projectId);
+        for (String clazz : classes) {
+            if (!Dependencies.isDependency(clazz)) {
+                recorded.add(clazz);
+            } else if (deps != null && deps.containsKey(clazz.substring(Dependencies.PREFIX.length()))) {
+                recorded.add(Dependencies.PREFIX + deps.get(clazz.substring(Dependencies.PREFIX.length())));
+            }
+        }
+        return recorded;
+    }
+
+    /**
+     * Records the duration and the outcome of the execution of a test class.
+     */
+    public void addResult(String projectId, String test, long duration, boolean success) {
+        Log logger = getLog(projectId);
+        logger.debug("mvntia::addResult(" + projectId + ", " + test + ", " + duration + "ms, "
+                + (success ? "success" : "failure") + ")");
+        Set<String> previous;
+        synchronized (lock) {
+            previous = loadedReports.getOrDefault(projectId, Map.of()).get(test);
+        }
+        // the day of the execution is only needed to find the stalest tests for a budget
+        long day = budgets.getOrDefault(projectId, 0L) > 0 ? TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis()) : 0;
+        Set<String> stats = TestStats.record(previous != null ? TestStats.of(previous) : null, duration, success, day);
+        temporary
+                .computeIfAbsent(projectId, p -> new ConcurrentHashMap<>())
+                .merge(test, stats, Reports::union);
+    }
+
+    /**
+     * Returns the tests of a project in the order they should preferably be run:
+     * the impacted tests first, then the tests which failed recently and the
+     * quickest ones.  Tests without any report are not listed and should run first.
+     */
+    public List<String> testOrder(String projectId) {
+        try {
+            initialized.await();
+            Map<String, Set<String>> kept = snapshot.reports.getOrDefault(projectId, Map.of());
+            Map<String, TestStats> stats = getTestStats(projectId);
+            return stats.keySet().stream()
+                    .sorted(Comparator.comparing((String test) -> kept.containsKey(test))
+                            .thenComparing(stats::get, TestStats.PRIORITY)
+                            .thenComparing(Comparator.naturalOrder()))
+                    .collect(Collectors.toList());
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Unable to compute the order of the tests", e);
+        }
+    }
+
+    /**
+     * Returns the statistics recorded for the tests of a project.
+     */
+    public Map<String, TestStats> getTestStats(String projectId) throws InterruptedException {
+        initialized.await();
+        Map<String, Set<String>> reports;
+        synchronized (lock) {
+            reports = loadedReports.getOrDefault(projectId, Map.of());
+        }
+        Map<String, TestStats> stats = new HashMap<>();
+        reports.forEach((test, classes) -> stats.put(test, TestStats.of(classes)));
+        return stats;
+    }
+
     public void writeReport(String projectId, String digest) {
         try {
             initialized.await();
             Log logger = getLog(projectId);
-            if (state.uncommitted.isEmpty()) {
-                // Read notes
-                Map<String, Set<String>> rep;
-                synchronized (temporary) {
-                    rep = temporary.remove(projectId);
-                }
-                if (rep != null) {
-                    String str;
-                    synchronized (reports) {
-                        Map<String, Set<String>> newRep = reports.computeIfAbsent(projectId, p -> new TreeMap<>());
-                        rep.forEach((key, value) -> newRep.computeIfAbsent(key, s -> new HashSet<>()).addAll(value));
-                        digests.put(projectId, digest);
-                        str = Reports.writeReports(reports, digests);
+            StaticDependencies analyzer = staticDependencies.get(projectId);
+            if (analyzer != null) {
+                try {
+                    analyzer.save();
+                } catch (IOException e) {
+                    logger.warn("Unable to write the static analysis cache: " + e);
+                }
+            }
+            // discard the classes used by the JVMs started by the failed tests
+            children.remove(projectId);
+            if (state.uncommitted.isEmpty() || state.overlay) {
+                Map<String, Set<String>> added = temporary.remove(projectId);
+                Map<String, Set<String>> kept = unchanged.remove(projectId);
+                Set<String> stale = refreshed.remove(projectId);
+                if (added != null || kept != null) {
+                    Map<String, Set<String>> rep = added != null ? added : Map.of();
+                    synchronized (lock) {
+                        Map<String, Set<String>> newRep = new TreeMap<>(snapshot.reports.getOrDefault(projectId, Map.of()));
+                        String prevDigest = snapshot.digests.get(projectId);
+                        if (prevDigest != null && !prevDigest.equals(digest)) {
+                            // drop the reports of the tests impacted by the changed dependencies
+                            Set<String> changed = Dependencies.getChanged(prevDigest, digest);
+                            newRep.values().removeIf(classes -> Dependencies.isImpacted(classes, changed));
+                        }
+                        if (stale != null) {
+                            // the refreshed reports replace the previous ones
+                            newRep.keySet().removeIf(test -> stale.contains(test) && rep.containsKey(test));
+                        }
+                        rep.forEach((key, value) -> newRep.merge(key, value, Reports::union));
+                        if (kept != null) {
+                            kept.forEach(newRep::putIfAbsent);
+                        }
+                        snapshot = snapshot.with(projectId, newRep, digest);
+                        dirty = true;
+                        recorded = true;
+                    }
+                    long delay = flushDelay;
+                    if (delay > 0) {
+                        scheduleWrite(delay);
+                        logger.info("mvntia::writeReport(" + projectId + ") => " + rep.size() + " reports recorded");
+                    } else {
+                        String str = scheduleWrite(0).get();
+                        logger.info("mvntia::writeReport(" + projectId + ") => " + str.length() + " bytes written");
                     }
-                    storage.writeNotes(str);
-                    logger.info("mvntia::writeReport(" + projectId + ") => " + str.length() + " bytes written");
                 } else {
                     logger.info("mvntia::writeReport(" + projectId + ") => no report to write");
                 }
@@ -218,9 +616,89 @@ public class GitClient implements Client {
         }
     }
 
+    /**
+     * Sets the delay after which recorded reports are written to the storage.
+     * With a positive delay, the reports of all the modules are coalesced and
+     * written at most once per delay, the remaining ones being written by
+     * {@link #flush()} at the end of the build.  With no delay, each report
+     * is written as soon as possible.
+     */
+    public void setFlushDelay(long flushDelay) {
+        this.flushDelay = flushDelay;
+    }
+
+    /**
+     * Writes the reports recorded since the last write, if any.
+     */
+    public void flush() {
+        try {
+            Future<?> future;
+            synchronized (lock) {
+                // if nothing is pending, still wait for a write in progress
+                future = dirty ? scheduleWrite(0) : writer.submit(() -> { });
+            }
+            future.get();
+        } catch (Exception e) {
+            throw new RuntimeException("Error writing reports", e);
+        }
+    }
+
+    /**
+     * Schedules the reports to be written by the writer thread.  All the
+     * reports published before the write actually starts are written together.
+     */
+    CompletableFuture<String> scheduleWrite(long delay) {
+        synchronized (lock) {
+            if (pendingWrite == null) {
+                CompletableFuture<String> future = new CompletableFuture<>();
+                pendingWrite = future;
+                pendingTask = writer.schedule(() -> write(future), delay, TimeUnit.MILLISECONDS);
+            } else if (delay == 0 && pendingTask.cancel(false)) {
+                // a delayed write is pending, do it now
+                CompletableFuture<String> future = pendingWrite;
+                pendingTask = writer.schedule(() -> write(future), 0, TimeUnit.MILLISECONDS);
+            }
+            return pendingWrite;
+        }
+    }
+
+    void write(CompletableFuture<String> future) {
+        Snapshot snapshot;
+        synchronized (lock) {
+            pendingWrite = null;
+            pendingTask = null;
+            snapshot = this.snapshot;
+            dirty = false;
+        }
+        try {
+            // serialize outside of the lock, the snapshot is immutable
+            String str = Reports.writeReports(snapshot.reports, snapshot.digests);
+            storage.writeNotes(str);
+            synchronized (lock) {
+                // only merge the recorded projects: the snapshot lacks the impacted
+                // tests of the other ones, whose history is still needed
+                Map<String, Map<String, Set<String>>> reports = new TreeMap<>(loadedReports);
+                Map<String, String> digests = new HashMap<>(loadedDigests);
+                for (String projectId : snapshot.recorded) {
+                    reports.put(projectId, snapshot.reports.get(projectId));
+                    digests.put(projectId, snapshot.digests.get(projectId));
+                }
+                loadedReports = reports;
+                loadedDigests = digests;
+                // the parsed reports no longer match a note, so parse the next one
+                loadedNote = null;
+                index = null;
+            }
+            LOGGER.info("mvntia reports written for " + snapshot.reports.size() + " projects (" + str.length() + " bytes)");
+            future.complete(str);
+        } catch (Throwable t) {
+            LOGGER.warn("Error writing reports", t);
+            future.completeExceptionally(t);
+        }
+    }
+
     public void log(String projectId, String level, String message) {
         try {
-            initialized.await();
             Log logger = getLog(projectId);
             switch (level) {
                 case "debug": logger.debug(message); break;
@@ -233,12 +711,165 @@ public class GitClient implements Client {
         }
     }
 
-    public static void setLogger(String projectId, Log logger) {
-        LOGGERS.put(projectId, logger);
+    /**
+     * Sets the directories and jars containing the classes of the given project,
+     * so that the hash of the bytecode used by each test is recorded, and tests
+     * with an unchanged hash are skipped even if impacted by modified files.
+     *
+     * @param classPath the class path, or <code>null</code> to disable hashes
+     */
+    public void setClassPath(String projectId, List<File> classPath) {
+        setClassPath(projectId, classPath, false);
+    }
+
+    /**
+     * Sets the class path of the given project.  When <code>normalize</code>
+     * is set, the debug attributes of the classes are ignored, so that tests
+     * impacted by cosmetic changes only, such as comments or formatting, are
+     * skipped.
+     *
+     * @param classPath the class path, or <code>null</code> to disable hashes
+     */
+    public void setClassPath(String projectId, List<File> classPath, boolean normalize) {
+        if (classPath == null) {
+            classHashes.remove(projectId);
+        } else {
+            ClassHashes hashes = normalize ? new NormalizedClassHashes(classPath) : new ClassHashes(classPath);
+            if (!hashes.equals(classHashes.get(projectId))) {
+                classHashes.put(projectId, hashes);
+            }
+        }
+    }
+
+    /**
+     * Enables the static analysis of the classes used by the tests of the given
+     * project, which are added to the classes reported for each test.
+     *
+     * @param classPath the class path followed by the analysis, or <code>null</code> to disable it
+     * @param cacheFile the file caching the classes referenced by each class file
+     */
+    public void setStaticAnalysis(String projectId, List<File> classPath, Path cacheFile) {
+        setStaticAnalysis(projectId, classPath, cacheFile, true, false);
+    }
+
+    /**
+     * Enables the static analysis of the classes used by the tests of the given
+     * project.  With <code>closure</code>, all the classes referenced from the
+     * test are added to the classes reported for each test.  With <code>constants</code>,
+     * the annotation types and the classes declaring the constants used by the
+     * reported classes are added, as they do not execute any code.
+     *
+     * @param classPath the class path followed by the analysis, or <code>null</code> to disable it
+     * @param cacheFile the file caching the classes referenced by each class file
+     */
+    public void setStaticAnalysis(String projectId, List<File> classPath, Path cacheFile,
+                                  boolean closure, boolean constants) {
+        if (classPath == null || !closure && !constants) {
+            staticDependencies.remove(projectId);
+            staticClosures.remove(projectId);
+            staticConstants.remove(projectId);
+        } else {
+            StaticDependencies analyzer = staticDependencies.get(projectId);
+            if (analyzer == null || !analyzer.getClassPath().equals(classPath)
+                    || !Objects.equals(analyzer.cacheFile, cacheFile)) {
+                staticDependencies.put(projectId, new StaticDependencies(classPath, cacheFile));
+            } else {
+                analyzer.refresh();
+            }
+            if (closure) {
+                staticClosures.add(projectId);
+            } else {
+                staticClosures.remove(projectId);
+            }
+            if (constants) {
+                staticConstants.add(projectId);
+            } else {
+                staticConstants.remove(projectId);
+            }
+        }
+    }
+
+    /**
+     * Sets the external dependencies of the given project, so that the
+     * dependencies used by each test are recorded, and only the tests using
+     * a modified dependency are run when the dependencies change.
+     *
+     * @param locations the key of each dependency indexed by its location,
+     *                  or <code>null</code> to disable the tracking
+     */
+    public void setDependencies(String projectId, Map<String, String> locations) {
+        if (locations == null) {
+            dependencies.remove(projectId);
+        } else {
+            dependencies.put(projectId, locations);
+        }
+    }
+
+    /**
+     * Sets the time budget used to re-run, in addition to the impacted tests,
+     * the skipped tests which have not been run for the longest time, so that
+     * their reports do not drift from the code.
+     *
+     * @param budget the budget in milliseconds, or <code>0</code> to only run the impacted tests
+     */
+    public void setBudget(String projectId, long budget) {
+        if (budget > 0) {
+            budgets.put(projectId, budget);
+        } else {
+            budgets.remove(projectId);
+        }
+    }
+
+    public void setLogger(String projectId, Log logger) {
+        loggers.put(projectId, logger);
+    }
+
+    /**
+     * Releases the loggers of the projects built in the current session.
+     */
+    public void clearLoggers() {
+        loggers.clear();
+    }
+
+    /**
+     * Returns a rough estimate of the heap used by the reports held by this client.
+     */
+    public long estimateSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to write pending reports", e);
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        storage.close();
+    }
+
+    void updateEstimatedSize() {
+        // strings are counted as 2 bytes per char + 40 bytes overhead, set or map entries as 40 bytes
+        long size = loadedNote != null ? loadedNote.length() * 2L + 40 : 0;
+        for (Map<String, Set<String>> r : loadedReports.values()) {
+            for (Map.Entry<String, Set<String>> e : r.entrySet()) {
+                size += e.getKey().length() * 2L + 80;
+                for (String c : e.getValue()) {
+                    size += c.length() * 2L + 80;
+                }
+            }
+        }
+        estimatedSize = size;
     }
 
     protected Log getLog(String projectId) {
-        Log logger = LOGGERS.getOrDefault(projectId, this.logger);
+        Log logger = loggers.getOrDefault(projectId, this.logger);
         if (projectId != null && projectId.contains(":")) {
             MDC.put("maven.project.id", projectId.substring(projectId.indexOf(':') + 1));
         }
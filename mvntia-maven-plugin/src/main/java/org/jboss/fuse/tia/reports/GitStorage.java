@@ -18,20 +18,35 @@ package org.jboss.fuse.tia.reports;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
 import org.eclipse.jgit.notes.Note;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.notes.NoteMapMerger;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,16 +57,45 @@ public class GitStorage implements Storage {
 
     protected static final Logger LOGGER = LoggerFactory.getLogger(GitStorage.class);
 
+
     protected final String executionDir;
     protected final String gitNotesRef;
+    protected final ChangeTracker tracker;
+    protected Repository repository;
+    protected int maxChainLength;
+    protected boolean overlay;
+    // fingerprint of the uncommitted files computed by the last call to getState
+    ObjectId fingerprintHead;
+    Map<String, String> fingerprint;
 
     public GitStorage(String executionDir) {
         this(executionDir, GIT_NOTES_REF);
     }
 
     public GitStorage(String executionDir, String gitNotesRef) {
+        this(executionDir, gitNotesRef, null);
+    }
+
+    public GitStorage(String executionDir, String gitNotesRef, ChangeTracker tracker) {
         this.executionDir = executionDir;
         this.gitNotesRef = gitNotesRef;
+        this.tracker = tracker;
+    }
+
+    /**
+     * Sets the maximum number of delta notes between two notes containing the
+     * full reports.  A value of <code>0</code> disables delta notes.
+     */
+    public void setMaxChainLength(int maxChainLength) {
+        this.maxChainLength = maxChainLength;
+    }
+
+    /**
+     * Keeps the reports computed on a dirty working tree in a local overlay
+     * instead of discarding them.
+     */
+    public void setOverlay(boolean overlay) {
+        this.overlay = overlay;
     }
 
     @Override
@@ -62,36 +106,56 @@ public class GitStorage implements Storage {
                 return null;
             }
 
-            String noteData = null;
-            Set<String> modified = null;
-            Set<String> uncommitted;
+            Set<String> uncommitted = getUncommitted(git, head.getObjectId());
 
-            org.eclipse.jgit.api.Status status = git.status().call();
-            uncommitted = new TreeSet<>();
-            uncommitted.addAll(status.getUncommittedChanges());
-            uncommitted.addAll(status.getUntracked());
+            ObjectId notesId = tracker != null ? getNotesId(git) : null;
+            State history = tracker != null ? tracker.getHistory(head.getObjectId(), notesId) : null;
+            if (history == null) {
+                history = getHistory(git, head);
+                if (tracker != null) {
+                    tracker.setHistory(head.getObjectId(), notesId, history);
+                }
+            }
 
-            Note note = null;
-            RevWalk walk = new RevWalk(git.getRepository());
+            if (overlay) {
+                return applyOverlay(git, head.getObjectId(), history, uncommitted);
+            }
+            return new State(history.note, history.modified, uncommitted);
+        } catch (RepositoryNotFoundException e) {
+            return null;
+        } catch (GitAPIException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks for the nearest note in the first parent history of HEAD and
+     * computes the files modified since the annotated commit.
+     *
+     * @return a state without any uncommitted files
+     */
+    protected State getHistory(Git git, Ref head) throws IOException, GitAPIException {
+        String noteData = null;
+        Set<String> modified = null;
+
+        try (RevWalk walk = new RevWalk(git.getRepository())) {
             RevCommit headCommit = Objects.requireNonNull(walk.parseCommit(head.getObjectId()));
             RevCommit baseCommit = headCommit;
-            int checks = 0;
-            while (note == null && baseCommit != null) {
-                checks++;
-                note = git.notesShow().setNotesRef(gitNotesRef).setObjectId(baseCommit).call();
-                if (note == null) {
+            while (noteData == null && baseCommit != null) {
+                String data = readNote(git, baseCommit);
+                if (data != null) {
+                    noteData = resolveNote(git, data);
+                    if (noteData == null) {
+                        LOGGER.warn("Unable to resolve the notes of commit {}, ignoring them", baseCommit.name());
+                    }
+                }
+                if (noteData == null) {
                     RevCommit[] parents = baseCommit.getParents();
                     baseCommit = parents != null && parents.length > 0 ? walk.parseCommit(parents[0]) : null;
                 }
             }
-            if (note != null) {
-                // TODO: use streaming api directly ?
-                noteData = new String(git.getRepository().open(note.getData()).getCachedBytes(),
-                        StandardCharsets.UTF_8);
-            } else {
-                if (checks == 1) {
-                    LOGGER.warn("No history found, make sure to fetch some history");
-                }
+            if (noteData == null && headCommit.getParentCount() == 0) {
+                LOGGER.warn("No history found, make sure to fetch some history");
             }
             if (baseCommit != null) {
                 modified = new TreeSet<>();
@@ -110,23 +174,148 @@ public class GitStorage implements Storage {
                     }
                 }
             }
+        }
 
-            return new State(noteData, modified, uncommitted);
-        } catch (RepositoryNotFoundException e) {
+        return new State(noteData, modified, null);
+    }
+
+    /**
+     * Uses the reports of the local overlay if they have been computed on the
+     * same commit, or if the working tree is clean and its content is the one
+     * the reports were computed on.  The overlay is only promoted to the notes
+     * of HEAD, or discarded, when writing the notes.
+     */
+    protected synchronized State applyOverlay(Git git, ObjectId headId, State history, Set<String> uncommitted)
+            throws IOException, GitAPIException {
+        Overlay.Content content = getOverlay(git).read();
+        if (uncommitted.isEmpty()) {
+            fingerprintHead = null;
+            fingerprint = null;
+            if (content != null && Overlay.matches(git.getRepository(), content, headId)) {
+                return new State(content.note, new TreeSet<>(), uncommitted);
+            }
+            return new State(history.note, history.modified, uncommitted);
+        }
+        Map<String, String> files = Overlay.fingerprint(git.getRepository(), uncommitted);
+        fingerprintHead = headId.copy();
+        fingerprint = files;
+        if (content != null && content.head.equals(headId.name())) {
+            return new State(content.note, Overlay.getModified(content.files, files), uncommitted, true);
+        }
+        Set<String> modified = new TreeSet<>(uncommitted);
+        if (history.modified != null) {
+            modified.addAll(history.modified);
+        }
+        return new State(history.note, modified, uncommitted, true);
+    }
+
+    protected Overlay getOverlay(Git git) {
+        return new Overlay(getLocalFile(git, ".overlay"));
+    }
+
+    /**
+     * Returns a file specific to the notes ref in the <code>.git/mvntia</code> directory.
+     */
+    protected Path getLocalFile(Git git, String extension) {
+        String name = gitNotesRef.startsWith(Constants.R_NOTES)
+                ? gitNotesRef.substring(Constants.R_NOTES.length()) : gitNotesRef;
+        return git.getRepository().getDirectory().toPath()
+                .resolve("mvntia").resolve(name.replace('/', '_') + extension);
+    }
+
+    /**
+     * Reads the raw note attached to the given commit.
+     *
+     * @return the note, or <code>null</code> if there is none
+     */
+    protected String readNote(Git git, ObjectId commit) throws IOException, GitAPIException {
+        Note note = git.notesShow().setNotesRef(gitNotesRef).setObjectId(git.getRepository().parseCommit(commit)).call();
+        if (note == null) {
             return null;
-        } catch (GitAPIException e) {
-            throw new IllegalStateException(e);
         }
+        // TODO: use streaming api directly ?
+        return new String(git.getRepository().open(note.getData()).getCachedBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Resolves a delta note by applying it on top of its base notes.
+     *
+     * @return the full reports, or <code>null</code> if the chain is broken
+     */
+    protected String resolveNote(Git git, String data) throws IOException, GitAPIException {
+        return Reports.resolve(data, commitId -> {
+            try {
+                return readNote(git, ObjectId.fromString(commitId));
+            } catch (MissingObjectException e) {
+                return null;
+            } catch (GitAPIException e) {
+                throw new IOException(e);
+            }
+        });
+    }
+
+    /**
+     * Encodes the reports as a delta relative to the nearest note in the first
+     * parent history of the commit, unless the chain would become too long or
+     * the delta would not be smaller.
+     */
+    protected String encodeNote(Git git, RevCommit commit, String message) throws IOException, GitAPIException {
+        if (maxChainLength <= 0) {
+            return message;
+        }
+        try (RevWalk walk = new RevWalk(git.getRepository())) {
+            RevCommit baseCommit = walk.parseCommit(commit);
+            while (baseCommit.getParentCount() > 0) {
+                baseCommit = walk.parseCommit(baseCommit.getParent(0));
+                String data = readNote(git, baseCommit);
+                String resolved = data != null ? resolveNote(git, data) : null;
+                if (resolved != null) {
+                    int depth = Reports.getDepth(data) + 1;
+                    if (depth > maxChainLength) {
+                        // write a full checkpoint
+                        return message;
+                    }
+                    Map<String, Map<String, Set<String>>> baseReports = new TreeMap<>();
+                    Map<String, String> baseDigests = new TreeMap<>();
+                    Reports.loadReports(resolved, baseReports, baseDigests);
+                    Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+                    Map<String, String> digests = new TreeMap<>();
+                    Reports.loadReports(message, reports, digests);
+                    String delta = Reports.writeDelta(baseCommit.name(), depth, baseReports, baseDigests, reports, digests);
+                    return delta.length() < message.length() ? delta : message;
+                }
+            }
+        }
+        return message;
+    }
+
+    protected Set<String> getUncommitted(Git git, ObjectId headId) throws IOException, GitAPIException {
+        if (tracker != null) {
+            return tracker.getUncommitted(git, headId);
+        }
+        org.eclipse.jgit.api.Status status = git.status().call();
+        Set<String> uncommitted = new TreeSet<>();
+        uncommitted.addAll(status.getUncommittedChanges());
+        uncommitted.addAll(status.getUntracked());
+        return uncommitted;
+    }
+
+    protected ObjectId getNotesId(Git git) throws IOException {
+        Ref notes = git.getRepository().exactRef(gitNotesRef);
+        return notes != null ? notes.getObjectId() : null;
     }
 
     public void writeNotes(String message) throws IOException {
         try (Git git = open()) {
-            if (git.status().call().isClean()) {
-                RevCommit commit = getHeadCommit(git);
-                git.notesAdd().setNotesRef(gitNotesRef)
-                        .setObjectId(commit)
-                        .setMessage(message).call();
-                LOGGER.info("Notes added to commit {}", commit);
+            RevCommit commit = getHeadCommit(git);
+            if (getUncommitted(git, commit).isEmpty()) {
+                writeNote(git, commit, encodeNote(git, commit, message));
+                // the reports of the overlay, if any, are either part of the note or outdated
+                if (overlay && getOverlay(git).delete()) {
+                    LOGGER.info("Local overlay replaced by the notes of commit {}", commit.name());
+                }
+            } else if (overlay && writeOverlay(git, commit, message)) {
+                LOGGER.info("The repository is not clean, the notes have been written to the local overlay");
             } else {
                 LOGGER.info("The repository is not clean, the notes won't be written");
             }
@@ -136,18 +325,145 @@ public class GitStorage implements Storage {
         }
     }
 
+    synchronized boolean writeOverlay(Git git, RevCommit commit, String message) throws IOException {
+        if (fingerprint == null || !commit.equals(fingerprintHead)) {
+            return false;
+        }
+        getOverlay(git).write(fingerprintHead, fingerprint, message);
+        return true;
+    }
+
     public void removeNotes() throws IOException {
         try (Git git = open()) {
-            RevCommit commit = getHeadCommit(git);
-            git.notesRemove().setNotesRef(gitNotesRef)
-                    .setObjectId(commit).call();
-            LOGGER.info("Notes removed from commit {}", commit);
+            removeNote(git, getHeadCommit(git));
         } catch (Exception e) {
             LOGGER.error("Error removing git notes", e);
             throw new IOException("Error removing git notes", e);
         }
     }
 
+    /**
+     * Attaches the note to the given commit, unless it is already attached.
+     */
+    protected void writeNote(Git git, RevCommit commit, String message) throws IOException, GitAPIException {
+        Note existing = git.notesShow().setNotesRef(gitNotesRef).setObjectId(commit).call();
+        ObjectId id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, message.getBytes(StandardCharsets.UTF_8));
+        if (existing != null && existing.getData().equals(id)) {
+            LOGGER.info("Notes for commit {} are up to date", commit);
+            return;
+        }
+        git.notesAdd().setNotesRef(gitNotesRef)
+                .setObjectId(commit)
+                .setMessage(message).call();
+        LOGGER.info("Notes added to commit {}", commit);
+    }
+
+    protected void removeNote(Git git, RevCommit commit) throws IOException, GitAPIException {
+        git.notesRemove().setNotesRef(gitNotesRef)
+                .setObjectId(commit).call();
+        LOGGER.info("Notes removed from commit {}", commit);
+    }
+
+    /**
+     * Removes old or unreachable notes and squashes the notes history.
+     *
+     * @see NotesPruner#prune(int, boolean)
+     */
+    public NotesPruner.Result prune(int depth, boolean dryRun) throws IOException {
+        try (Git git = open()) {
+            return new NotesPruner(git.getRepository(), gitNotesRef).prune(depth, dryRun);
+        }
+    }
+
+    /**
+     * Merges the notes of the given ref into the notes ref of this storage,
+     * using a {@link ReportsNoteMerger} for the commits annotated on both sides.
+     *
+     * @return the id of the resulting notes commit
+     */
+    public ObjectId mergeNotes(String ref) throws IOException {
+        try (Git git = open();
+             RevWalk walk = new RevWalk(git.getRepository());
+             ObjectReader reader = git.getRepository().newObjectReader();
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            Repository repository = git.getRepository();
+            Ref theirsRef = repository.exactRef(ref);
+            if (theirsRef == null) {
+                throw new IOException("Unable to find ref " + ref);
+            }
+            RevCommit theirs = walk.parseCommit(theirsRef.getObjectId());
+            Ref oursRef = repository.exactRef(gitNotesRef);
+            RevCommit ours = oursRef != null ? walk.parseCommit(oursRef.getObjectId()) : null;
+            ObjectId result;
+            if (ours == null || walk.isMergedInto(ours, theirs)) {
+                result = theirs;
+            } else if (walk.isMergedInto(theirs, ours)) {
+                return ours;
+            } else {
+                walk.reset();
+                walk.setRevFilter(RevFilter.MERGE_BASE);
+                walk.markStart(ours);
+                walk.markStart(theirs);
+                RevCommit base = walk.next();
+                NoteMap baseMap = base != null ? NoteMap.read(reader, base) : NoteMap.newEmptyMap();
+                NoteMap oursMap = NoteMap.read(reader, ours);
+                NoteMap theirsMap = NoteMap.read(reader, theirs);
+                Reports.NoteReader noteReader = commitId -> {
+                    ObjectId id = ObjectId.fromString(commitId);
+                    ObjectId data = oursMap.contains(id) ? oursMap.get(id) : theirsMap.get(id);
+                    return data != null ? new String(reader.open(data).getCachedBytes(), StandardCharsets.UTF_8) : null;
+                };
+                NoteMap merged = new NoteMapMerger(repository, new ReportsNoteMerger(noteReader), MergeStrategy.RESOLVE)
+                        .merge(baseMap, oursMap, theirsMap);
+                CommitBuilder builder = new CommitBuilder();
+                builder.setTreeId(merged.writeTree(inserter));
+                builder.setParentIds(ours, theirs);
+                PersonIdent ident = new PersonIdent(repository);
+                builder.setAuthor(ident);
+                builder.setCommitter(ident);
+                builder.setMessage("Merged notes from " + ref);
+                result = inserter.insert(builder);
+                inserter.flush();
+            }
+            RefUpdate update = repository.updateRef(gitNotesRef);
+            update.setExpectedOldObjectId(ours != null ? ours : ObjectId.zeroId());
+            update.setNewObjectId(result);
+            update.setRefLogMessage("mvntia: merge notes from " + ref, false);
+            RefUpdate.Result res = update.update();
+            if (res != RefUpdate.Result.NEW && res != RefUpdate.Result.FAST_FORWARD) {
+                throw new IOException("Unable to update " + gitNotesRef + ": " + res);
+            }
+            LOGGER.info("Notes from {} merged into {}", ref, gitNotesRef);
+            return result;
+        }
+    }
+
+    /**
+     * Merges the given reports, for example exported by several builds, with the
+     * note of the HEAD commit and writes the result.
+     */
+    public void mergeReports(List<String> notes) throws IOException {
+        Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+        Map<String, String> digests = new TreeMap<>();
+        try (Git git = open()) {
+            String data = readNote(git, getHeadCommit(git));
+            String resolved = data != null ? resolveNote(git, data) : null;
+            Reports.loadReports(resolved, reports, digests);
+        } catch (GitAPIException e) {
+            throw new IOException("Error reading git notes", e);
+        }
+        for (String note : notes) {
+            Map<String, Map<String, Set<String>>> r = new TreeMap<>();
+            Map<String, String> d = new TreeMap<>();
+            Reports.loadReports(note, r, d);
+            Set<String> conflicts = Reports.merge(reports, digests, r, d);
+            if (!conflicts.isEmpty()) {
+                LOGGER.warn("Reports of modules {} built with different dependencies have not been merged", conflicts);
+            }
+        }
+        writeNotes(Reports.writeReports(reports, digests));
+    }
+
     protected RevCommit getHeadCommit(Git git) throws IOException {
         return git.getRepository().parseCommit(getHead(git).getObjectId());
     }
@@ -157,8 +473,26 @@ public class GitStorage implements Storage {
         return branch != null ? git.getRepository().findRef(branch) : null;
     }
 
-    protected Git open() throws IOException {
-        return Git.open(new File(executionDir).getCanonicalFile());
+    /**
+     * Returns a git wrapper around the repository, which is opened once and kept
+     * open (along with its object caches) until this storage is closed.
+     */
+    protected synchronized Git open() throws IOException {
+        if (repository == null) {
+            repository = Git.open(new File(executionDir).getCanonicalFile()).getRepository();
+        }
+        return Git.wrap(repository);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (repository != null) {
+            repository.close();
+            repository = null;
+        }
+        if (tracker != null) {
+            tracker.close();
+        }
     }
 
 
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * A storage which complements the git notes with reports shared on a remote
+ * server, so that reports computed on CI can be reused from a fresh or
+ * shallow clone.
+ *
+ * The server is a simple key-value store: the note of a commit is read with
+ * <code>GET {url}/{commitId}</code> and written with <code>PUT {url}/{commitId}</code>.
+ * Notes fetched from the server are cached in the <code>.git/mvntia/cache</code>
+ * directory along with their ETag, and revalidated using conditional requests.
+ * Notes are uploaded in the background when uploading is enabled.
+ */
+public class HttpStorage extends GitStorage {
+
+    static final int TIMEOUT = 5000;
+    static final long MISSING_TTL = TimeUnit.MINUTES.toMillis(5);
+    static final int MAX_LOOKUPS = 50;
+
+    final String url;
+    final boolean upload;
+    final String token;
+    // commits for which the server has no note, with the time of the lookup
+    final Map<ObjectId, Long> missing = new ConcurrentHashMap<>();
+    ExecutorService uploader;
+    // remote lookups done during the current walk
+    int lookups;
+    boolean offline;
+
+    public HttpStorage(String executionDir, String gitNotesRef, ChangeTracker tracker,
+                       String url, boolean upload, String token) {
+        super(executionDir, gitNotesRef, tracker);
+        this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        this.upload = upload;
+        this.token = token;
+    }
+
+    @Override
+    protected synchronized State getHistory(Git git, Ref head) throws IOException, GitAPIException {
+        startWalk();
+        return super.getHistory(git, head);
+    }
+
+    @Override
+    protected synchronized String encodeNote(Git git, RevCommit commit, String message) throws IOException, GitAPIException {
+        startWalk();
+        return super.encodeNote(git, commit, message);
+    }
+
+    void startWalk() {
+        lookups = 0;
+        offline = false;
+    }
+
+    @Override
+    protected String readNote(Git git, ObjectId commit) throws IOException, GitAPIException {
+        String note = super.readNote(git, commit);
+        if (note != null) {
+            return note;
+        }
+        Path cache = getCacheDir(git).resolve(commit.name());
+        Path etag = cache.resolveSibling(commit.name() + ".etag");
+        String cached = Files.exists(cache) ? Files.readString(cache) : null;
+        if (offline || lookups >= MAX_LOOKUPS) {
+            return cached;
+        }
+        Long time = missing.get(commit);
+        if (cached == null && time != null && System.currentTimeMillis() - time < MISSING_TTL) {
+            return null;
+        }
+        lookups++;
+        try {
+            HttpURLConnection con = connect(commit);
+            if (cached != null && Files.exists(etag)) {
+                con.setRequestProperty("If-None-Match", Files.readString(etag));
+            }
+            int code = con.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return cached;
+            } else if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                missing.put(commit.copy(), System.currentTimeMillis());
+                Files.deleteIfExists(cache);
+                Files.deleteIfExists(etag);
+                return null;
+            } else if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + code + " for " + con.getURL());
+            }
+            try (InputStream is = con.getInputStream()) {
+                note = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            missing.remove(commit);
+            write(cache, note);
+            String tag = con.getHeaderField("ETag");
+            if (tag != null) {
+                write(etag, tag);
+            } else {
+                Files.deleteIfExists(etag);
+            }
+            LOGGER.debug("Notes for commit {} fetched from {}", commit.name(), url);
+            return note;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to fetch notes from {}, using cached notes: {}", url, e.toString());
+            offline = true;
+            return cached;
+        }
+    }
+
+    @Override
+    protected void writeNote(Git git, RevCommit commit, String message) throws IOException, GitAPIException {
+        super.writeNote(git, commit, message);
+        if (upload) {
+            ObjectId id = commit.copy();
+            getUploader().submit(() -> upload(id, message));
+        }
+    }
+
+    void upload(ObjectId commit, String message) {
+        try {
+            HttpURLConnection con = connect(commit);
+            con.setRequestMethod("PUT");
+            con.setDoOutput(true);
+            con.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            try (OutputStream os = con.getOutputStream()) {
+                os.write(message.getBytes(StandardCharsets.UTF_8));
+            }
+            int code = con.getResponseCode();
+            if (code / 100 != 2) {
+                throw new IOException("Unexpected response " + code + " for " + con.getURL());
+            }
+            missing.remove(commit);
+            LOGGER.info("Notes for commit {} uploaded to {}", commit.name(), url);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to upload notes for commit " + commit.name() + " to " + url, e);
+        }
+    }
+
+    HttpURLConnection connect(ObjectId commit) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url + "/" + commit.name()).openConnection();
+        con.setConnectTimeout(TIMEOUT);
+        con.setReadTimeout(TIMEOUT);
+        con.setUseCaches(false);
+        if (token != null && !token.isEmpty()) {
+            con.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        return con;
+    }
+
+    synchronized ExecutorService getUploader() {
+        if (uploader == null) {
+            uploader = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "mvntia-upload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return uploader;
+    }
+
+    Path getCacheDir(Git git) {
+        return git.getRepository().getDirectory().toPath().resolve("mvntia").resolve("cache");
+    }
+
+    static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.writeString(tmp, content);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (uploader != null) {
+            uploader.shutdown();
+            try {
+                if (!uploader.awaitTermination(30, TimeUnit.SECONDS)) {
+                    LOGGER.warn("Timed out waiting for notes to be uploaded to {}", url);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            uploader = null;
+        }
+        super.close();
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index from source file paths (without extension) to the tests
+ * referencing the corresponding classes, so that the tests impacted by a
+ * set of modified files can be found without scanning all the reports.
+ * Java source files are matched against the referenced classes, and other
+ * files against the resources read by the tests, which are prefixed with
+ * {@link #RESOURCE_PREFIX} in the reports.
+ */
+public class ImpactIndex {
+
+    /**
+     * Prefix of the entries holding a resource in the referenced classes of a test.
+     */
+    public static final String RESOURCE_PREFIX = "/";
+
+    final Map<String, Map<String, Set<String>>> index = new HashMap<>();
+    final Map<String, Map<String, Set<String>>> resources = new HashMap<>();
+
+    public ImpactIndex(Map<String, ? extends Map<String, ? extends Collection<String>>> reports) {
+        reports.forEach((project, tests) -> tests.forEach((test, classes) -> {
+            add(project, test, test);
+            for (String clazz : classes) {
+                if (isResource(clazz)) {
+                    add(resources, project, test, clazz.substring(RESOURCE_PREFIX.length()));
+                } else if (ClassHashes.isClass(clazz)) {
+                    add(project, test, clazz);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Computes the tests impacted by the given modified files.
+     *
+     * @param modifiedFiles the modified files, relative to the repository root
+     * @return the impacted tests, grouped by project
+     */
+    public Map<String, Set<String>> getImpactedTests(Collection<String> modifiedFiles) {
+        Map<String, Set<String>> impacted = new HashMap<>();
+        for (String file : modifiedFiles) {
+            boolean source = file.endsWith(".java");
+            Map<String, Map<String, Set<String>>> map = source ? this.index : this.resources;
+            String path = source ? fileWithoutExtension(file) : file;
+            int index = -1;
+            do {
+                Map<String, Set<String>> tests = map.get(path.substring(index + 1));
+                if (tests != null) {
+                    tests.forEach((project, t) -> impacted.computeIfAbsent(project, p -> new HashSet<>()).addAll(t));
+                }
+                index = path.indexOf('/', index + 1);
+            } while (index >= 0);
+        }
+        return impacted;
+    }
+
+    private void add(String project, String test, String clazz) {
+        add(index, project, test, toFilePath(getParentClassName(clazz)));
+    }
+
+    private static void add(Map<String, Map<String, Set<String>>> map, String project, String test, String path) {
+        map.computeIfAbsent(path, c -> new HashMap<>())
+                .computeIfAbsent(project, p -> new HashSet<>())
+                .add(test);
+    }
+
+    public static boolean isResource(String clazz) {
+        return clazz.startsWith(RESOURCE_PREFIX);
+    }
+
+    private static String toFilePath(String name) {
+        return name.replace('.', '/');
+    }
+
+    private static String fileWithoutExtension(String statusFile) {
+        int index = statusFile.lastIndexOf(".");
+        return index > statusFile.lastIndexOf('/') ? statusFile.substring(0, index) : statusFile;
+    }
+
+    private static String getParentClassName(String className) {
+        int innerClassIndex = className.indexOf("$");
+        return innerClassIndex > -1 ? className.substring(0, innerClassIndex) : className;
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * An append-only journal of notes keyed by commit id.
+ *
+ * Each record contains the commit id, the length of the note (or <code>-1</code>
+ * if the note has been removed), the note itself and a checksum.  The last
+ * record for a given commit wins.  The journal is memory-mapped and indexed,
+ * and reads do not require any lock: they use an immutable snapshot of the
+ * index which is replaced when the journal grows.  Appends are serialized
+ * using a lock file, so that several processes can share the journal.  The
+ * journal is compacted when more than half of it is made of stale records.
+ */
+public class Journal implements Closeable {
+
+    static final byte[] MAGIC = "MVNTIAJ1".getBytes(StandardCharsets.US_ASCII);
+    static final int RECORD_OVERHEAD = Constants.OBJECT_ID_LENGTH + 4 + 4;
+    static final long COMPACT_THRESHOLD = 1024 * 1024;
+
+    static class Index {
+        final MappedByteBuffer buffer;
+        final Object fileKey;
+        // the length of the file and the end of the last valid record
+        final long length;
+        final long size;
+        final Map<ObjectId, Long> offsets;
+        final long live;
+
+        Index(MappedByteBuffer buffer, Object fileKey, long length, long size, Map<ObjectId, Long> offsets, long live) {
+            this.buffer = buffer;
+            this.fileKey = fileKey;
+            this.length = length;
+            this.size = size;
+            this.offsets = offsets;
+            this.live = live;
+        }
+    }
+
+    static final Index EMPTY = new Index(null, null, 0, 0, Collections.emptyMap(), 0);
+
+    final Path file;
+    final Path lockFile;
+    final long compactThreshold;
+    volatile Index index = EMPTY;
+
+    public Journal(Path file) {
+        this(file, COMPACT_THRESHOLD);
+    }
+
+    public Journal(Path file, long compactThreshold) {
+        this.file = file;
+        this.lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * Reads the note attached to the given commit.
+     *
+     * @return the note, or <code>null</code> if there is none
+     */
+    public String read(AnyObjectId commit) throws IOException {
+        Index index = current();
+        Long offset = index.offsets.get(commit);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer buffer = index.buffer.duplicate();
+        buffer.position((int) (offset + Constants.OBJECT_ID_LENGTH));
+        byte[] data = new byte[buffer.getInt()];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns all the notes, in the order they have been written.
+     */
+    public Map<ObjectId, String> readAll() throws IOException {
+        Index index = current();
+        Map<ObjectId, String> notes = new LinkedHashMap<>();
+        index.offsets.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(e -> notes.put(e.getKey(), null));
+        for (ObjectId id : notes.keySet()) {
+            notes.put(id, read(id));
+        }
+        return notes;
+    }
+
+    /**
+     * Returns an id which changes each time the journal is modified.
+     */
+    public ObjectId getVersion() throws IOException {
+        Index index = current();
+        return ObjectId.fromRaw(new int[] {
+                0x6d76, Objects.hashCode(index.fileKey), (int) (index.size >>> 32), (int) index.size, 0 });
+    }
+
+    /**
+     * Appends a note for the given commit.
+     *
+     * @param note the note, or <code>null</code> to remove the note
+     */
+    public void write(AnyObjectId commit, String note) throws IOException {
+        byte[] data = note != null ? note.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + data.length);
+        byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+        commit.copyRawTo(id, 0);
+        record.put(id);
+        record.putInt(note != null ? data.length : -1);
+        record.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        synchronized (this) {
+            Files.createDirectories(file.getParent());
+            try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    Index index = refresh();
+                    long position = index.size;
+                    if (position == 0) {
+                        channel.truncate(0);
+                        channel.write(ByteBuffer.wrap(MAGIC), 0);
+                        position = MAGIC.length;
+                    } else if (channel.size() > position) {
+                        // discard an incomplete record
+                        channel.truncate(position);
+                    }
+                    while (record.hasRemaining()) {
+                        position += channel.write(record, position);
+                    }
+                    channel.force(false);
+                }
+                Index index = refresh();
+                if (index.size > compactThreshold && index.live * 2 < index.size) {
+                    compact(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal, keeping only the last note of each commit.
+     */
+    public synchronized void compact() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = lockChannel.lock()) {
+            compact(refresh());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        index = EMPTY;
+    }
+
+    void compact(Index index) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(MAGIC));
+            Long[] offsets = index.offsets.values().toArray(new Long[0]);
+            Arrays.sort(offsets);
+            for (long offset : offsets) {
+                ByteBuffer buffer = index.buffer.duplicate();
+                buffer.position((int) offset + Constants.OBJECT_ID_LENGTH);
+                int length = buffer.getInt();
+                buffer.position((int) offset);
+                buffer.limit((int) offset + RECORD_OVERHEAD + length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        refresh();
+    }
+
+    /**
+     * Returns the current index, refreshing it if the journal has been
+     * modified, possibly by another process.
+     */
+    Index current() throws IOException {
+        Index index = this.index;
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return index.length == 0 ? index : refresh();
+        }
+        if (attrs.size() == index.length && Objects.equals(attrs.fileKey(), index.fileKey)) {
+            return index;
+        }
+        return refresh();
+    }
+
+    synchronized Index refresh() throws IOException {
+        Index index = this.index;
+        if (!Files.exists(file)) {
+            this.index = EMPTY;
+            return EMPTY;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            long size = channel.size();
+            if (size < MAGIC.length) {
+                this.index = EMPTY;
+                return EMPTY;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Journal " + file + " is too big");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long position;
+            Map<ObjectId, Long> offsets;
+            long live;
+            if (index.buffer != null && Objects.equals(fileKey, index.fileKey) && size >= index.size) {
+                // only scan the new records
+                position = index.size;
+                offsets = new HashMap<>(index.offsets);
+                live = index.live;
+            } else {
+                byte[] magic = new byte[MAGIC.length];
+                buffer.get(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException("Invalid journal " + file);
+                }
+                position = MAGIC.length;
+                offsets = new HashMap<>();
+                live = MAGIC.length;
+            }
+            byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+            CRC32 crc = new CRC32();
+            while (position + RECORD_OVERHEAD <= size) {
+                ByteBuffer record = buffer.duplicate();
+                record.position((int) position);
+                record.get(id);
+                int length = record.getInt();
+                long end = position + RECORD_OVERHEAD + Math.max(length, 0);
+                if (end > size) {
+                    break;
+                }
+                crc.reset();
+                ByteBuffer checked = buffer.duplicate();
+                checked.position((int) position);
+                checked.limit((int) end - 4);
+                crc.update(checked);
+                record.position((int) end - 4);
+                if (record.getInt() != (int) crc.getValue()) {
+                    break;
+                }
+                ObjectId commit = ObjectId.fromRaw(id);
+                Long previous = length >= 0 ? offsets.put(commit, position) : offsets.remove(commit);
+                if (previous != null) {
+                    ByteBuffer b = buffer.duplicate();
+                    b.position((int) (previous + Constants.OBJECT_ID_LENGTH));
+                    live -= RECORD_OVERHEAD + b.getInt();
+                }
+                if (length >= 0) {
+                    live += end - position;
+                }
+                position = end;
+            }
+            index = new Index(buffer, fileKey, size, position, Collections.unmodifiableMap(offsets), live);
+            this.index = index;
+            return index;
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * A storage keeping the reports in a local {@link Journal} located in the
+ * <code>.git/mvntia</code> directory instead of git notes, which avoids
+ * writing to the git object database.  The reports can be exported to git
+ * notes in order to be shared.
+ */
+public class JournalStorage extends GitStorage {
+
+    Journal journal;
+
+    public JournalStorage(String executionDir, String gitNotesRef, ChangeTracker tracker) {
+        super(executionDir, gitNotesRef, tracker);
+    }
+
+    @Override
+    protected String readNote(Git git, ObjectId commit) throws IOException {
+        return getJournal(git).read(commit);
+    }
+
+    @Override
+    protected void writeNote(Git git, RevCommit commit, String message) throws IOException {
+        Journal journal = getJournal(git);
+        if (message.equals(journal.read(commit))) {
+            LOGGER.info("Notes for commit {} are up to date", commit);
+            return;
+        }
+        journal.write(commit, message);
+        LOGGER.info("Notes added to commit {}", commit);
+    }
+
+    @Override
+    protected void removeNote(Git git, RevCommit commit) throws IOException {
+        getJournal(git).write(commit, null);
+        LOGGER.info("Notes removed from commit {}", commit);
+    }
+
+    @Override
+    protected ObjectId getNotesId(Git git) throws IOException {
+        return getJournal(git).getVersion();
+    }
+
+    /**
+     * Copies the reports from the journal to the git notes.
+     *
+     * @return the number of exported notes
+     */
+    public int exportNotes() throws IOException {
+        try (Git git = open();
+             RevWalk walk = new RevWalk(git.getRepository());
+             ObjectReader reader = git.getRepository().newObjectReader();
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            Repository repository = git.getRepository();
+            Map<ObjectId, String> notes = getJournal(git).readAll();
+            if (notes.isEmpty()) {
+                return 0;
+            }
+            Ref ref = repository.exactRef(gitNotesRef);
+            RevCommit parent = ref != null ? walk.parseCommit(ref.getObjectId()) : null;
+            NoteMap map = parent != null ? NoteMap.read(reader, parent) : NoteMap.newEmptyMap();
+            for (Map.Entry<ObjectId, String> entry : notes.entrySet()) {
+                map.set(entry.getKey(), entry.getValue(), inserter);
+            }
+            CommitBuilder builder = new CommitBuilder();
+            builder.setTreeId(map.writeTree(inserter));
+            if (parent != null) {
+                builder.setParentId(parent);
+            }
+            PersonIdent ident = new PersonIdent(repository);
+            builder.setAuthor(ident);
+            builder.setCommitter(ident);
+            builder.setMessage("Notes exported by mvntia");
+            ObjectId commit = inserter.insert(builder);
+            inserter.flush();
+            RefUpdate update = repository.updateRef(gitNotesRef);
+            update.setExpectedOldObjectId(parent != null ? parent : ObjectId.zeroId());
+            update.setNewObjectId(commit);
+            update.setRefLogMessage("mvntia: export notes", false);
+            RefUpdate.Result res = update.update();
+            if (res != RefUpdate.Result.NEW && res != RefUpdate.Result.FAST_FORWARD) {
+                throw new IOException("Unable to update " + gitNotesRef + ": " + res);
+            }
+            LOGGER.info("{} notes exported to {}", notes.size(), gitNotesRef);
+            return notes.size();
+        }
+    }
+
+    /**
+     * Rewrites the journal, keeping only the last note of each commit.
+     */
+    public void compact() throws IOException {
+        try (Git git = open()) {
+            getJournal(git).compact();
+        }
+    }
+
+    /**
+     * Prunes the reports of the journal instead of the git notes.
+     *
+     * @see NotesPruner#prune(Journal, int, boolean)
+     */
+    @Override
+    public NotesPruner.Result prune(int depth, boolean dryRun) throws IOException {
+        try (Git git = open()) {
+            return new NotesPruner(git.getRepository(), gitNotesRef).prune(getJournal(git), depth, dryRun);
+        }
+    }
+
+    protected synchronized Journal getJournal(Git git) {
+        if (journal == null) {
+            journal = new Journal(getLocalFile(git, ".journal"));
+        }
+        return journal;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        super.close();
+    }
+
+}
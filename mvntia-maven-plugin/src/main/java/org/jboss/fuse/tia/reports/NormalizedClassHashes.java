@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import javassist.bytecode.AttributeInfo;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.DeprecatedAttribute;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.LineNumberAttribute;
+import javassist.bytecode.LocalVariableAttribute;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.SourceFileAttribute;
+
+/**
+ * Computes hashes of the compiled classes ignoring the debug attributes, so
+ * that edits to comments, javadoc or formatting, which only move line numbers
+ * around, do not change the hash of a class.
+ */
+public class NormalizedClassHashes extends ClassHashes {
+
+    static final Set<String> IGNORED = Set.of(
+            SourceFileAttribute.tag,
+            "SourceDebugExtension",
+            DeprecatedAttribute.tag,
+            LineNumberAttribute.tag,
+            LocalVariableAttribute.tag,
+            LocalVariableAttribute.typeTag);
+
+    public NormalizedClassHashes(List<File> classPath) {
+        super(classPath);
+    }
+
+    @Override
+    protected String hashBytes(byte[] bytes) {
+        try {
+            return super.hashBytes(normalize(bytes));
+        } catch (IOException | RuntimeException e) {
+            // not a class file javassist can read, use the raw content
+            return super.hashBytes(bytes);
+        }
+    }
+
+    static byte[] normalize(byte[] bytes) throws IOException {
+        ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        strip(cf.getAttributes());
+        for (FieldInfo field : cf.getFields()) {
+            strip(field.getAttributes());
+        }
+        for (MethodInfo method : cf.getMethods()) {
+            strip(method.getAttributes());
+            CodeAttribute code = method.getCodeAttribute();
+            if (code != null) {
+                strip(code.getAttributes());
+            }
+        }
+        // drop the constant pool entries only used by the removed attributes
+        cf.compact();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length);
+        cf.write(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    static void strip(List<AttributeInfo> attributes) {
+        attributes.removeIf(a -> IGNORED.contains(a.getName()));
+    }
+
+}
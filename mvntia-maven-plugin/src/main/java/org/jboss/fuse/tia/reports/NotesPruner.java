@@ -0,0 +1,322 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.Note;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Removes the notes attached to commits which are not reachable from any
+ * branch or tag, or which are too far from the tips, and rewrites the notes
+ * ref as a single commit without history.  The notes of a {@link Journal}
+ * can be pruned the same way.
+ */
+public class NotesPruner {
+
+    public static class Result {
+        public int entries;
+        public int keptEntries;
+        public int unreachable;
+        public int old;
+        public int broken;
+        public int materialized;
+        public long bytes;
+        public long keptBytes;
+        public int historyCommits;
+        public long lookupNanos;
+        public long prunedLookupNanos;
+        public int lookups;
+        public ObjectId commit;
+    }
+
+    final Repository repository;
+    final String notesRef;
+
+    public NotesPruner(Repository repository, String notesRef) {
+        this.repository = repository;
+        this.notesRef = notesRef;
+    }
+
+    /**
+     * Prunes the notes.
+     *
+     * @param depth the number of generations from the tips for which notes are kept,
+     *              or a negative value to keep the notes of all reachable commits
+     * @param dryRun if <code>true</code>, only compute the result without writing anything
+     * @return the result, or <code>null</code> if there are no notes
+     */
+    public Result prune(int depth, boolean dryRun) throws IOException {
+        Ref ref = repository.exactRef(notesRef);
+        if (ref == null) {
+            return null;
+        }
+        Result result = new Result();
+        try (RevWalk walk = new RevWalk(repository);
+             ObjectReader reader = repository.newObjectReader();
+             ObjectInserter inserter = repository.newObjectInserter()) {
+            RevCommit notesCommit = walk.parseCommit(ref.getObjectId());
+            NoteMap notes = NoteMap.read(reader, notesCommit);
+            Map<ObjectId, ObjectId> entries = new HashMap<>();
+            for (Note note : notes) {
+                entries.put(note.copy(), note.getData().copy());
+                result.bytes += reader.getObjectSize(note.getData(), Constants.OBJ_BLOB);
+            }
+            result.entries = entries.size();
+
+            // compute the commits for which notes are kept
+            List<RevCommit> tips = getTips(walk);
+            Set<ObjectId> reachable = getReachable(walk, tips, entries.keySet());
+            Set<ObjectId> recent = depth < 0 ? reachable : getRecent(walk, tips, depth);
+            Set<ObjectId> kept = getKept(entries.keySet(), reachable, recent, result);
+
+            // build the new notes, replacing the deltas relative to a removed note
+            NoteMap pruned = NoteMap.newEmptyMap();
+            for (ObjectId id : kept) {
+                ObjectId data = entries.get(id);
+                String content = read(reader, data);
+                String base = Reports.getBase(content);
+                if (base != null && !kept.contains(ObjectId.fromString(base))) {
+                    content = Reports.resolve(content, c -> {
+                        ObjectId d = entries.get(ObjectId.fromString(c));
+                        return d != null ? read(reader, d) : null;
+                    });
+                    if (content == null) {
+                        result.broken++;
+                        continue;
+                    }
+                    result.materialized++;
+                    pruned.set(id, content, inserter);
+                    result.keptBytes += content.getBytes(StandardCharsets.UTF_8).length;
+                } else {
+                    pruned.set(id, data);
+                    result.keptBytes += reader.getObjectSize(data, Constants.OBJ_BLOB);
+                }
+                result.keptEntries++;
+            }
+
+            walk.reset();
+            walk.markStart(notesCommit);
+            for (RevCommit ignored : walk) {
+                result.historyCommits++;
+            }
+
+            // measure the time needed to look up the notes of the recent commits
+            result.lookups = recent.size();
+            result.lookupNanos = lookup(NoteMap.read(reader, notesCommit), recent);
+
+            if (!dryRun) {
+                CommitBuilder builder = new CommitBuilder();
+                builder.setTreeId(pruned.writeTree(inserter));
+                PersonIdent ident = new PersonIdent(repository);
+                builder.setAuthor(ident);
+                builder.setCommitter(ident);
+                builder.setMessage("Notes pruned by mvntia");
+                ObjectId commitId = inserter.insert(builder);
+                inserter.flush();
+                RefUpdate update = repository.updateRef(notesRef);
+                update.setExpectedOldObjectId(notesCommit);
+                update.setNewObjectId(commitId);
+                update.setRefLogMessage("mvntia: prune notes", false);
+                RefUpdate.Result res = update.forceUpdate();
+                if (res != RefUpdate.Result.FORCED && res != RefUpdate.Result.NEW && res != RefUpdate.Result.NO_CHANGE) {
+                    throw new IOException("Unable to update " + notesRef + ": " + res);
+                }
+                result.commit = commitId;
+                try (RevWalk walk2 = new RevWalk(repository)) {
+                    result.prunedLookupNanos = lookup(NoteMap.read(reader, walk2.parseCommit(commitId)), recent);
+                }
+            } else {
+                // estimate on the in-memory map
+                result.prunedLookupNanos = lookup(pruned, recent);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Prunes the notes of a journal, which is then compacted.
+     *
+     * @param depth the number of generations from the tips for which notes are kept,
+     *              or a negative value to keep the notes of all reachable commits
+     * @param dryRun if <code>true</code>, only compute the result without writing anything
+     * @return the result, or <code>null</code> if there are no notes
+     */
+    public Result prune(Journal journal, int depth, boolean dryRun) throws IOException {
+        Map<ObjectId, String> notes = journal.readAll();
+        if (notes.isEmpty()) {
+            return null;
+        }
+        Result result = new Result();
+        for (String content : notes.values()) {
+            result.bytes += content.getBytes(StandardCharsets.UTF_8).length;
+        }
+        result.entries = notes.size();
+        try (RevWalk walk = new RevWalk(repository)) {
+            List<RevCommit> tips = getTips(walk);
+            Set<ObjectId> reachable = getReachable(walk, tips, notes.keySet());
+            Set<ObjectId> recent = depth < 0 ? reachable : getRecent(walk, tips, depth);
+            Set<ObjectId> kept = getKept(notes.keySet(), reachable, recent, result);
+
+            // replace the deltas relative to a removed note
+            Map<ObjectId, String> pruned = new LinkedHashMap<>();
+            for (Map.Entry<ObjectId, String> entry : notes.entrySet()) {
+                if (!kept.contains(entry.getKey())) {
+                    pruned.put(entry.getKey(), null);
+                    continue;
+                }
+                String content = entry.getValue();
+                String base = Reports.getBase(content);
+                if (base != null && !kept.contains(ObjectId.fromString(base))) {
+                    content = Reports.resolve(content, c -> notes.get(ObjectId.fromString(c)));
+                    if (content == null) {
+                        result.broken++;
+                        pruned.put(entry.getKey(), null);
+                        continue;
+                    }
+                    result.materialized++;
+                    pruned.put(entry.getKey(), content);
+                }
+                result.keptEntries++;
+                result.keptBytes += content.getBytes(StandardCharsets.UTF_8).length;
+            }
+
+            if (!dryRun) {
+                for (Map.Entry<ObjectId, String> entry : pruned.entrySet()) {
+                    journal.write(entry.getKey(), entry.getValue());
+                }
+                journal.compact();
+            }
+        }
+        return result;
+    }
+
+    Set<ObjectId> getKept(Set<ObjectId> annotated, Set<ObjectId> reachable, Set<ObjectId> recent, Result result) {
+        Set<ObjectId> kept = new HashSet<>();
+        for (ObjectId id : annotated) {
+            if (!reachable.contains(id)) {
+                result.unreachable++;
+            } else if (!recent.contains(id)) {
+                result.old++;
+            } else {
+                kept.add(id);
+            }
+        }
+        return kept;
+    }
+
+    List<RevCommit> getTips(RevWalk walk) throws IOException {
+        List<Ref> refs = new ArrayList<>(repository.getRefDatabase().getRefs());
+        Ref head = repository.exactRef(Constants.HEAD);
+        if (head != null) {
+            refs.add(head);
+        }
+        List<RevCommit> tips = new ArrayList<>();
+        for (Ref ref : refs) {
+            if (ref.getName().startsWith(Constants.R_NOTES) || ref.getObjectId() == null) {
+                continue;
+            }
+            try {
+                RevObject obj = walk.peel(walk.parseAny(ref.getObjectId()));
+                if (obj instanceof RevCommit) {
+                    tips.add((RevCommit) obj);
+                }
+            } catch (MissingObjectException e) {
+                // ignore broken refs
+            }
+        }
+        return tips;
+    }
+
+    Set<ObjectId> getReachable(RevWalk walk, List<RevCommit> tips, Set<ObjectId> annotated) throws IOException {
+        Set<ObjectId> reachable = new HashSet<>();
+        walk.reset();
+        for (RevCommit tip : tips) {
+            walk.markStart(walk.parseCommit(tip));
+        }
+        for (RevCommit commit : walk) {
+            if (annotated.contains(commit)) {
+                reachable.add(commit.copy());
+                if (reachable.size() == annotated.size()) {
+                    break;
+                }
+            }
+        }
+        return reachable;
+    }
+
+    Set<ObjectId> getRecent(RevWalk walk, List<RevCommit> tips, int depth) throws IOException {
+        walk.reset();
+        Map<ObjectId, Integer> distances = new HashMap<>();
+        Deque<RevCommit> queue = new ArrayDeque<>();
+        for (RevCommit tip : tips) {
+            if (distances.putIfAbsent(tip.copy(), 0) == null) {
+                queue.add(tip);
+            }
+        }
+        while (!queue.isEmpty()) {
+            RevCommit commit = queue.poll();
+            int distance = distances.get(commit);
+            if (distance >= depth) {
+                continue;
+            }
+            walk.parseHeaders(commit);
+            for (RevCommit parent : commit.getParents()) {
+                if (distances.putIfAbsent(parent.copy(), distance + 1) == null) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return distances.keySet();
+    }
+
+    static long lookup(NoteMap notes, Set<ObjectId> commits) throws IOException {
+        long t0 = System.nanoTime();
+        for (ObjectId id : commits) {
+            notes.getNote(id);
+        }
+        return System.nanoTime() - t0;
+    }
+
+    static String read(ObjectReader reader, ObjectId data) throws IOException {
+        return new String(reader.open(data, Constants.OBJ_BLOB).getCachedBytes(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Reports computed on a dirty working tree, which cannot be attached to a
+ * commit.  They are stored along with the commit checked out and a fingerprint
+ * of the uncommitted files (the blob id of their content), so that the next
+ * build on the same commit only needs to run the tests impacted by the files
+ * modified since.
+ */
+public class Overlay {
+
+    static final String DELETED = ObjectId.zeroId().name();
+
+    public static class Content {
+        public String head;
+        public Map<String, String> files;
+        public String note;
+    }
+
+    final Path file;
+    final Gson gson = new GsonBuilder().create();
+
+    public Overlay(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the overlay.
+     *
+     * @return the content, or <code>null</code> if there is no valid overlay
+     */
+    public Content read() throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            Content content = gson.fromJson(Files.readString(file), Content.class);
+            return content != null && content.head != null && content.files != null && content.note != null
+                    ? content : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    public void write(AnyObjectId head, Map<String, String> files, String note) throws IOException {
+        Content content = new Content();
+        content.head = head.name();
+        content.files = new TreeMap<>(files);
+        content.note = note;
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.writeString(tmp, gson.toJson(content));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the overlay.
+     *
+     * @return <code>true</code> if there was an overlay
+     */
+    public boolean delete() throws IOException {
+        return Files.deleteIfExists(file);
+    }
+
+    /**
+     * Computes the blob id of the given files of the working tree.
+     */
+    public static Map<String, String> fingerprint(Repository repository, Set<String> paths) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        ObjectInserter.Formatter formatter = new ObjectInserter.Formatter();
+        Path workTree = repository.getWorkTree().toPath();
+        for (String path : paths) {
+            Path f = workTree.resolve(path);
+            files.put(path, Files.isRegularFile(f)
+                    ? formatter.idFor(Constants.OBJ_BLOB, Files.readAllBytes(f)).name() : DELETED);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the files whose content differ between two fingerprints taken
+     * on the same commit.  A file missing from a fingerprint has the content
+     * of the commit, so it differs from the other fingerprint.
+     */
+    public static Set<String> getModified(Map<String, String> f1, Map<String, String> f2) {
+        Set<String> modified = new TreeSet<>(f1.keySet());
+        modified.addAll(f2.keySet());
+        modified.removeIf(path -> Objects.equals(f1.get(path), f2.get(path)));
+        return modified;
+    }
+
+    /**
+     * Checks if the content of the given commit is exactly the content of the
+     * working tree when the overlay was written.
+     */
+    public static boolean matches(Repository repository, Content content, AnyObjectId commit) throws IOException {
+        try (RevWalk walk = new RevWalk(repository);
+             ObjectReader reader = repository.newObjectReader()) {
+            RevTree base = walk.parseCommit(ObjectId.fromString(content.head)).getTree();
+            RevTree tree = walk.parseCommit(commit).getTree();
+            Set<String> paths = new TreeSet<>(content.files.keySet());
+            try (TreeWalk tw = new TreeWalk(reader)) {
+                tw.addTree(base);
+                tw.addTree(tree);
+                tw.setRecursive(true);
+                tw.setFilter(TreeFilter.ANY_DIFF);
+                while (tw.next()) {
+                    paths.add(tw.getPathString());
+                }
+            }
+            for (String path : paths) {
+                String expected = content.files.containsKey(path) ? content.files.get(path) : getBlob(reader, path, base);
+                if (!expected.equals(getBlob(reader, path, tree))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (MissingObjectException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    static String getBlob(ObjectReader reader, String path, RevTree tree) throws IOException {
+        try (TreeWalk tw = TreeWalk.forPath(reader, path, tree)) {
+            return tw != null ? tw.getObjectId(0).name() : DELETED;
+        }
+    }
+
+}
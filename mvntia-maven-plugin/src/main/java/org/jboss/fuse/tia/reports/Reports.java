@@ -21,15 +21,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -46,10 +52,103 @@ import org.codehaus.plexus.util.IOUtil;
 
 public final class Reports {
 
+    /**
+     * Commit whose note a delta note is relative to.
+     */
+    public static final String BASE = "base";
+
+    /**
+     * Number of deltas to apply, including this one, to get the full reports.
+     */
+    public static final String DEPTH = "depth";
+
+    /**
+     * Tests removed by a delta note, or <code>"*"</code> if the whole module is removed.
+     */
+    public static final String REMOVED = "removed";
+
+    /**
+     * Maximum length of the delta chains which are followed when reading notes,
+     * guarding against chains written with a bigger limit or cycles.
+     */
+    public static final int MAX_CHAIN_LENGTH = 100;
+
+    private static final Pattern DELTA = Pattern.compile("^\\{\"" + BASE + "\":\"([0-9a-f]{40})\",\"" + DEPTH + "\":([0-9]+)");
+
+    /**
+     * Reads the note attached to a given commit.
+     */
+    @FunctionalInterface
+    public interface NoteReader {
+
+        /**
+         * @return the note, or <code>null</code> if there is none
+         */
+        String read(String commitId) throws IOException;
+
+    }
+
     private Reports() {
     }
 
     public static String writeReports(Map<String, ? extends Map<String, ? extends Collection<String>>> reports, Map<String, String> digests) throws IOException {
+        return writeReports(Map.of(), reports, digests);
+    }
+
+    /**
+     * Writes a delta note containing the tests and digests which differ between
+     * the base reports and the given reports, along with the removed tests.
+     *
+     * @param base the commit holding the base note
+     * @param depth the depth of this delta, the base note having a depth of <code>depth - 1</code>
+     */
+    public static String writeDelta(String base, int depth,
+                                    Map<String, ? extends Map<String, ? extends Collection<String>>> baseReports, Map<String, String> baseDigests,
+                                    Map<String, ? extends Map<String, ? extends Collection<String>>> reports, Map<String, String> digests) throws IOException {
+        Map<String, Map<String, Collection<String>>> changed = new TreeMap<>();
+        Map<String, Object> removed = new TreeMap<>();
+        for (Map.Entry<String, ? extends Map<String, ? extends Collection<String>>> entry : reports.entrySet()) {
+            String module = entry.getKey();
+            Map<String, ? extends Collection<String>> baseTests = baseReports.get(module);
+            Map<String, Collection<String>> tests = new TreeMap<>();
+            entry.getValue().forEach((test, classes) -> {
+                Collection<String> baseClasses = baseTests != null ? baseTests.get(test) : null;
+                if (baseClasses == null || !new HashSet<>(baseClasses).equals(new HashSet<>(classes))) {
+                    tests.put(test, new TreeSet<>(classes));
+                }
+            });
+            if (!tests.isEmpty() || baseTests == null) {
+                changed.put(module, tests);
+            }
+            if (baseTests != null) {
+                Set<String> removedTests = new TreeSet<>(baseTests.keySet());
+                removedTests.removeAll(entry.getValue().keySet());
+                if (!removedTests.isEmpty()) {
+                    removed.put(module, removedTests);
+                }
+            }
+        }
+        for (String module : baseReports.keySet()) {
+            if (!reports.containsKey(module)) {
+                removed.put(module, "*");
+            }
+        }
+        Map<String, String> changedDigests = new TreeMap<>();
+        digests.forEach((module, digest) -> {
+            if (!Objects.equals(digest, baseDigests.get(module))) {
+                changedDigests.put(module, digest);
+            }
+        });
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put(BASE, base);
+        header.put(DEPTH, depth);
+        if (!removed.isEmpty()) {
+            header.put(REMOVED, removed);
+        }
+        return writeReports(header, changed, changedDigests);
+    }
+
+    static String writeReports(Map<String, Object> header, Map<String, ? extends Map<String, ? extends Collection<String>>> reports, Map<String, String> digests) throws IOException {
         Map<String, Long> counts = reports.values().stream().map(Map::values)
                 .flatMap(Collection::stream)
                 .flatMap(Collection::stream)
@@ -62,6 +161,7 @@ public final class Reports {
             Map<String, Object> output = new LinkedHashMap<>();
             Map<String, String> classes = new LinkedHashMap<>();
             Map<String, String> revClasses = new LinkedHashMap<>();
+            output.putAll(header);
             counts.keySet().stream()
                     .sorted(Comparator.<String>comparingLong(counts::get).reversed().thenComparing(Comparator.naturalOrder()))
                     .distinct()
@@ -88,6 +188,7 @@ public final class Reports {
             result = new Gson().toJson(output);
         } else {
             Map<String, Object> output = new LinkedHashMap<>();
+            output.putAll(header);
             output.put("digests", digests);
             output.putAll(reports);
             result = new Gson().toJson(output);
@@ -103,11 +204,238 @@ public final class Reports {
         if (notes == null || notes.isBlank()) {
             return;
         }
+        JsonObject element = JsonParser.parseString(decode(notes)).getAsJsonObject();
+        element.remove(BASE);
+        element.remove(DEPTH);
+        element.remove(REMOVED);
+        load(element, reports, digests);
+    }
+
+    /**
+     * Applies a delta note on top of the reports loaded from its base note.
+     */
+    public static void applyDelta(String notes, Map<String, Map<String, Set<String>>> reports, Map<String, String> digests) throws IOException {
+        JsonObject element = JsonParser.parseString(decode(notes)).getAsJsonObject();
+        element.remove(BASE);
+        element.remove(DEPTH);
+        JsonElement removed = element.remove(REMOVED);
+        if (removed != null) {
+            for (Map.Entry<String, JsonElement> entry : removed.getAsJsonObject().entrySet()) {
+                if (entry.getValue().isJsonArray()) {
+                    Map<String, Set<String>> tests = reports.get(entry.getKey());
+                    if (tests != null) {
+                        entry.getValue().getAsJsonArray().forEach(t -> tests.remove(t.getAsString()));
+                    }
+                } else {
+                    reports.remove(entry.getKey());
+                    digests.remove(entry.getKey());
+                }
+            }
+        }
+        Map<String, Map<String, Set<String>>> changed = new TreeMap<>();
+        load(element, changed, digests);
+        changed.forEach((module, tests) -> reports.computeIfAbsent(module, m -> new TreeMap<>()).putAll(tests));
+    }
+
+    /**
+     * Merges two notes, usually written for the same commit by different builds.
+     * The merged note contains the union of the tests and referenced classes,
+     * their hash and statistics being taken from the second note when present.
+     * Both notes must either contain the full reports or be deltas relative to
+     * the same base.
+     *
+     * @see #merge(Map, Map, Map, Map)
+     */
+    public static String merge(String ours, String theirs) throws IOException {
+        String base = getBase(ours);
+        if (!Objects.equals(base, getBase(theirs))) {
+            throw new IllegalArgumentException("Unable to merge notes relative to different bases");
+        }
+        JsonObject o = JsonParser.parseString(decode(ours)).getAsJsonObject();
+        JsonObject t = JsonParser.parseString(decode(theirs)).getAsJsonObject();
+        o.remove(BASE);
+        t.remove(BASE);
+        JsonElement od = o.remove(DEPTH);
+        JsonElement td = t.remove(DEPTH);
+        JsonElement or = o.remove(REMOVED);
+        JsonElement tr = t.remove(REMOVED);
+        Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+        Map<String, String> digests = new TreeMap<>();
+        load(o, reports, digests);
+        Map<String, Map<String, Set<String>>> theirReports = new TreeMap<>();
+        Map<String, String> theirDigests = new TreeMap<>();
+        load(t, theirReports, theirDigests);
+        merge(reports, digests, theirReports, theirDigests);
+        if (base == null) {
+            return writeReports(reports, digests);
+        }
+        // a test is removed only if removed on both sides and not added back
+        Map<String, Object> removed = new TreeMap<>();
+        Map<String, Object> ourRemoved = getRemoved(or);
+        Map<String, Object> theirRemoved = getRemoved(tr);
+        for (Map.Entry<String, Object> entry : ourRemoved.entrySet()) {
+            String module = entry.getKey();
+            Object r1 = entry.getValue();
+            Object r2 = theirRemoved.get(module);
+            if (r2 == null) {
+                continue;
+            }
+            if ("*".equals(r1) && "*".equals(r2)) {
+                removed.put(module, "*");
+            } else {
+                Set<String> tests = new TreeSet<>();
+                if ("*".equals(r1)) {
+                    tests.addAll(asSet(r2));
+                } else if ("*".equals(r2)) {
+                    tests.addAll(asSet(r1));
+                } else {
+                    tests.addAll(asSet(r1));
+                    tests.retainAll(asSet(r2));
+                }
+                tests.removeAll(reports.getOrDefault(module, Map.of()).keySet());
+                if (!tests.isEmpty()) {
+                    removed.put(module, tests);
+                }
+            }
+        }
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put(BASE, base);
+        header.put(DEPTH, Math.max(od != null ? od.getAsInt() : 1, td != null ? td.getAsInt() : 1));
+        if (!removed.isEmpty()) {
+            header.put(REMOVED, removed);
+        }
+        return writeReports(header, reports, digests);
+    }
+
+    /**
+     * Merges the source reports into the target reports, building the union of the
+     * tests and referenced classes (see {@link #union(Set, Set)}).  The tests of a module which has been built with
+     * different dependencies (as indicated by the digests) are not merged.
+     *
+     * @return the modules which could not be merged
+     */
+    public static Set<String> merge(Map<String, Map<String, Set<String>>> target, Map<String, String> targetDigests,
+                                    Map<String, ? extends Map<String, ? extends Collection<String>>> source, Map<String, String> sourceDigests) {
+        Set<String> conflicts = new TreeSet<>();
+        for (Map.Entry<String, ? extends Map<String, ? extends Collection<String>>> entry : source.entrySet()) {
+            String module = entry.getKey();
+            String targetDigest = targetDigests.get(module);
+            String sourceDigest = sourceDigests.get(module);
+            if (targetDigest != null && sourceDigest != null && !targetDigest.equals(sourceDigest)) {
+                conflicts.add(module);
+                continue;
+            }
+            Map<String, Set<String>> tests = target.computeIfAbsent(module, m -> new TreeMap<>());
+            entry.getValue().forEach((test, classes) -> tests.merge(test, new TreeSet<>(classes), Reports::union));
+            if (sourceDigest != null) {
+                targetDigests.put(module, sourceDigest);
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Builds the union of the referenced classes of a test, only keeping the
+     * newest hash and statistics, which are the ones of the second set if any.
+     */
+    static Set<String> union(Set<String> s1, Set<String> s2) {
+        Set<String> s = new TreeSet<>(s1);
+        if (ClassHashes.getHash(s2) != null) {
+            s.removeIf(c -> !ClassHashes.isClass(c) && !TestStats.isStat(c));
+        }
+        if (TestStats.hasStats(s2)) {
+            s.removeIf(TestStats::isStat);
+        }
+        s.addAll(s2);
+        return s;
+    }
+
+    private static Map<String, Object> getRemoved(JsonElement removed) {
+        Map<String, Object> result = new TreeMap<>();
+        if (removed != null) {
+            for (Map.Entry<String, JsonElement> entry : removed.getAsJsonObject().entrySet()) {
+                if (entry.getValue().isJsonArray()) {
+                    Set<String> tests = new TreeSet<>();
+                    entry.getValue().getAsJsonArray().forEach(t -> tests.add(t.getAsString()));
+                    result.put(entry.getKey(), tests);
+                } else {
+                    result.put(entry.getKey(), "*");
+                }
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> asSet(Object removed) {
+        return (Set<String>) removed;
+    }
+
+    /**
+     * Resolves a delta note by applying it on top of its base notes.
+     *
+     * @return the full reports, or <code>null</code> if the chain is broken
+     */
+    public static String resolve(String notes, NoteReader reader) throws IOException {
+        if (getBase(notes) == null) {
+            return notes;
+        }
+        Deque<String> chain = new ArrayDeque<>();
+        chain.push(notes);
+        String base;
+        while ((base = getBase(notes)) != null) {
+            if (chain.size() > MAX_CHAIN_LENGTH) {
+                return null;
+            }
+            notes = reader.read(base);
+            if (notes == null) {
+                return null;
+            }
+            chain.push(notes);
+        }
+        Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+        Map<String, String> digests = new TreeMap<>();
+        loadReports(chain.pop(), reports, digests);
+        while (!chain.isEmpty()) {
+            applyDelta(chain.pop(), reports, digests);
+        }
+        return writeReports(reports, digests);
+    }
+
+    /**
+     * Returns the commit whose note the given delta note is relative to,
+     * or <code>null</code> if the note contains the full reports.
+     */
+    public static String getBase(String notes) throws IOException {
+        Matcher matcher = matchDelta(notes);
+        return matcher != null ? matcher.group(1) : null;
+    }
+
+    /**
+     * Returns the depth of the given note, <code>0</code> for a note containing the full reports.
+     */
+    public static int getDepth(String notes) throws IOException {
+        Matcher matcher = matchDelta(notes);
+        return matcher != null ? Integer.parseInt(matcher.group(2)) : 0;
+    }
+
+    private static Matcher matchDelta(String notes) throws IOException {
+        if (notes == null || notes.isBlank()) {
+            return null;
+        }
+        Matcher matcher = DELTA.matcher(decode(notes));
+        return matcher.find() ? matcher : null;
+    }
+
+    private static String decode(String notes) throws IOException {
         // if not empty and not starting with '{', assume base64+compressed
         if (!notes.trim().startsWith("{")) {
             notes = uncompress(notes);
         }
-        JsonObject element = JsonParser.parseString(notes).getAsJsonObject();
+        return notes;
+    }
+
+    private static void load(JsonObject element, Map<String, Map<String, Set<String>>> reports, Map<String, String> digests) {
         if (element.has("digests")) {
             element.remove("digests").getAsJsonObject().entrySet()
                     .forEach(e -> digests.put(e.getKey(), e.getValue().getAsString()));
@@ -123,7 +451,9 @@ public final class Reports {
             String key = entry.getKey();
             Map<String, Set<String>> value = entry.getValue().getAsJsonObject().entrySet().stream().collect(Collectors.toMap(
                     Map.Entry::getKey,
-                    e2 -> getClasses(dict, e2.getValue())));
+                    e2 -> getClasses(dict, e2.getValue()),
+                    (s1, s2) -> s1,
+                    TreeMap::new));
             reports.put(key, value);
         }
     }
@@ -132,14 +462,14 @@ public final class Reports {
         if (dict == null) {
             return StreamSupport.stream(v.getAsJsonArray().spliterator(), false)
                     .map(JsonElement::getAsString)
-                    .sorted().collect(Collectors.toSet());
+                    .collect(Collectors.toCollection(TreeSet::new));
         } else {
             String s = v.getAsString();
             if (s.isBlank()) {
-                return new HashSet<>();
+                return new TreeSet<>();
             } else {
                 String[] ss = s.split(" ");
-                return Stream.of(ss).map(dict::get).sorted().collect(Collectors.toSet());
+                return Stream.of(ss).map(dict::get).collect(Collectors.toCollection(TreeSet::new));
             }
         }
     }
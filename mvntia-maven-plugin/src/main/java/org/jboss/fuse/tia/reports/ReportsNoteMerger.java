@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.notes.Note;
+import org.eclipse.jgit.notes.NoteMerger;
+
+/**
+ * A {@link NoteMerger} for test reports, to be used with a
+ * {@link org.eclipse.jgit.notes.NoteMapMerger} when merging notes refs
+ * written by different builds, for example by the shards of a CI build.
+ */
+public class ReportsNoteMerger implements NoteMerger {
+
+    final Reports.NoteReader noteReader;
+
+    /**
+     * @param noteReader used to resolve delta notes relative to different bases,
+     *                   may be <code>null</code>
+     */
+    public ReportsNoteMerger(Reports.NoteReader noteReader) {
+        this.noteReader = noteReader;
+    }
+
+    @Override
+    public Note merge(Note base, Note ours, Note theirs, ObjectReader reader, ObjectInserter inserter) throws IOException {
+        if (ours == null) {
+            return theirs;
+        }
+        if (theirs == null || ours.getData().equals(theirs.getData())) {
+            return ours;
+        }
+        String merged = merge(read(reader, ours), read(reader, theirs));
+        return new Note(ours, inserter.insert(Constants.OBJ_BLOB, merged.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    String merge(String ours, String theirs) throws IOException {
+        if (Objects.equals(Reports.getBase(ours), Reports.getBase(theirs))) {
+            return Reports.merge(ours, theirs);
+        }
+        String o = noteReader != null ? Reports.resolve(ours, noteReader) : null;
+        String t = noteReader != null ? Reports.resolve(theirs, noteReader) : null;
+        if (o == null || t == null) {
+            throw new IOException("Unable to merge notes relative to different bases");
+        }
+        return Reports.merge(o, t);
+    }
+
+    static String read(ObjectReader reader, Note note) throws IOException {
+        return new String(reader.open(note.getData(), Constants.OBJ_BLOB).getCachedBytes(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.AttributeInfo;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.ParameterAnnotationsAttribute;
+import javassist.bytecode.annotation.Annotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the classes used by a test without running it, by following the
+ * classes referenced in the constant pool of the compiled classes: the classes
+ * used by the code, and the types found in descriptors, generic signatures
+ * and annotations.  Only the classes found on the given class path, usually
+ * the classes of the module and of the reactor dependencies, are followed.
+ *
+ * It also finds the static dependencies of the classes recorded at runtime,
+ * which do not execute any code: the annotation types, and the classes
+ * declaring the compile-time constants inlined by javac, found by matching
+ * the constants of the constant pool with the values of the constant fields
+ * of the class path.  Small integer constants are not stored in the constant
+ * pool and cannot be matched.
+ *
+ * The information about each class file is kept in a cache file,
+ * invalidated when the class file or jar changes.
+ */
+public class StaticDependencies {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StaticDependencies.class);
+
+    static final Pattern DESCRIPTOR = Pattern.compile("L([\\w/$]+)[;<]");
+
+    static class ClassInfo {
+        // referenced classes
+        Set<String> refs = new TreeSet<>();
+        // annotation types
+        Set<String> annotations = new TreeSet<>();
+        // values of the constant fields declared by the class
+        Set<String> constants = new TreeSet<>();
+        // constants of the constant pool
+        Set<String> literals = new TreeSet<>();
+    }
+
+    static class Entry {
+        long lastModified;
+        long size;
+        Map<String, ClassInfo> classes;
+    }
+
+    final List<File> classPath;
+    final Path cacheFile;
+    final Gson gson = new GsonBuilder().create();
+    Map<String, Entry> cache;
+    boolean dirty;
+    // constant value -> classes declaring it
+    Map<String, Set<String>> constants;
+
+    public StaticDependencies(List<File> classPath, Path cacheFile) {
+        this.classPath = classPath;
+        this.cacheFile = cacheFile;
+    }
+
+    public List<File> getClassPath() {
+        return classPath;
+    }
+
+    /**
+     * Computes the classes transitively referenced by the given test, excluding
+     * the test itself, inner classes being reported as their outer class.
+     */
+    public synchronized Set<String> getDependencies(String test) throws IOException {
+        Set<String> classes = new TreeSet<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(test);
+        visited.add(test);
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            ClassInfo info = getClassInfo(name);
+            if (info == null) {
+                continue;
+            }
+            classes.add(getOuterClass(name));
+            for (String ref : info.refs) {
+                if (visited.add(ref)) {
+                    queue.add(ref);
+                }
+            }
+        }
+        classes.remove(test);
+        return classes;
+    }
+
+    /**
+     * Computes the annotation types and the classes declaring the constants
+     * used by the given test and classes, and their inner classes.
+     */
+    public synchronized Set<String> getConstantDependencies(String test, Collection<String> classes) throws IOException {
+        Map<String, Set<String>> constants = getConstants();
+        Set<String> outers = new TreeSet<>();
+        outers.add(test);
+        classes.stream().filter(ClassHashes::isClass).forEach(outers::add);
+        Set<String> deps = new TreeSet<>();
+        for (String outer : outers) {
+            for (Map.Entry<String, ClassInfo> e : getClassInfos(outer).entrySet()) {
+                ClassInfo info = e.getValue();
+                for (String annotation : info.annotations) {
+                    if (getClassInfo(annotation) != null) {
+                        deps.add(getOuterClass(annotation));
+                    }
+                }
+                for (String literal : info.literals) {
+                    deps.addAll(constants.getOrDefault(literal, Set.of()));
+                }
+            }
+        }
+        deps.removeAll(outers);
+        return deps;
+    }
+
+    /**
+     * Forgets the index of the constants, so that it is computed again on
+     * the next use, after the classes have been modified.
+     */
+    public synchronized void refresh() {
+        constants = null;
+    }
+
+    Map<String, Set<String>> getConstants() throws IOException {
+        if (constants == null) {
+            Map<String, Set<String>> index = new HashMap<>();
+            for (File element : classPath) {
+                List<File> files = new ArrayList<>();
+                if (element.isDirectory()) {
+                    try (Stream<Path> stream = Files.walk(element.toPath())) {
+                        stream.filter(f -> f.toString().endsWith(".class")).map(Path::toFile).forEach(files::add);
+                    }
+                } else if (element.isFile()) {
+                    files.add(element);
+                }
+                for (File file : files) {
+                    for (Map.Entry<String, ClassInfo> e : getEntry(file).classes.entrySet()) {
+                        for (String constant : e.getValue().constants) {
+                            index.computeIfAbsent(constant, c -> new TreeSet<>()).add(getOuterClass(e.getKey()));
+                        }
+                    }
+                }
+            }
+            constants = index;
+        }
+        return constants;
+    }
+
+    /**
+     * Returns the information about the given class, or <code>null</code>
+     * if the class is not on the class path.
+     */
+    ClassInfo getClassInfo(String name) throws IOException {
+        String path = name.replace('.', '/') + ".class";
+        for (File element : classPath) {
+            if (element.isDirectory()) {
+                File file = new File(element, path);
+                if (file.isFile()) {
+                    return getEntry(file).classes.get(name);
+                }
+            } else if (element.isFile()) {
+                ClassInfo info = getEntry(element).classes.get(name);
+                if (info != null) {
+                    return info;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the information about the given class and its inner classes.
+     */
+    Map<String, ClassInfo> getClassInfos(String outer) throws IOException {
+        String path = outer.replace('.', '/');
+        for (File element : classPath) {
+            Map<String, ClassInfo> infos = new TreeMap<>();
+            if (element.isDirectory()) {
+                Path file = element.toPath().resolve(path + ".class");
+                if (Files.isRegularFile(file)) {
+                    infos.putAll(getEntry(file.toFile()).classes);
+                    String prefix = file.getFileName().toString().replace(".class", "$");
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), prefix + "*.class")) {
+                        for (Path inner : stream) {
+                            infos.putAll(getEntry(inner.toFile()).classes);
+                        }
+                    }
+                }
+            } else if (element.isFile()) {
+                getEntry(element).classes.forEach((name, info) -> {
+                    if (name.equals(outer) || name.startsWith(outer + "$")) {
+                        infos.put(name, info);
+                    }
+                });
+            }
+            if (!infos.isEmpty()) {
+                return infos;
+            }
+        }
+        return Map.of();
+    }
+
+    Entry getEntry(File file) throws IOException {
+        Map<String, Entry> cache = getCache();
+        String key = file.getAbsolutePath();
+        Entry entry = cache.get(key);
+        if (entry == null || entry.lastModified != file.lastModified() || entry.size != file.length()) {
+            entry = new Entry();
+            entry.lastModified = file.lastModified();
+            entry.size = file.length();
+            entry.classes = new HashMap<>();
+            if (file.getName().endsWith(".class")) {
+                String name = toClassName(file);
+                if (name != null) {
+                    entry.classes.put(name, parse(Files.readAllBytes(file.toPath())));
+                }
+            } else {
+                try (JarFile jar = new JarFile(file)) {
+                    for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+                        JarEntry e = entries.nextElement();
+                        String name = e.getName();
+                        if (!name.endsWith(".class") || e.isDirectory()) {
+                            continue;
+                        }
+                        try (InputStream is = jar.getInputStream(e)) {
+                            entry.classes.put(name.substring(0, name.length() - ".class".length()).replace('/', '.'),
+                                    parse(is.readAllBytes()));
+                        }
+                    }
+                }
+            }
+            cache.put(key, entry);
+            dirty = true;
+        }
+        return entry;
+    }
+
+    String toClassName(File file) {
+        for (File element : classPath) {
+            Path dir = element.toPath().toAbsolutePath();
+            Path f = file.toPath().toAbsolutePath();
+            if (element.isDirectory() && f.startsWith(dir)) {
+                String path = dir.relativize(f).toString();
+                return path.substring(0, path.length() - ".class".length()).replace(File.separatorChar, '.');
+            }
+        }
+        return null;
+    }
+
+    static String getOuterClass(String name) {
+        int idx = name.indexOf('$');
+        return idx > 0 ? name.substring(0, idx) : name;
+    }
+
+    /**
+     * Reads the classes, annotations and constants found in a class file.
+     */
+    static ClassInfo parse(byte[] bytes) {
+        ClassInfo info = new ClassInfo();
+        try {
+            ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+            ConstPool cp = cf.getConstPool();
+            for (int i = 1; i < cp.getSize(); i++) {
+                int tag = cp.getTag(i);
+                if (tag == ConstPool.CONST_Class) {
+                    String name = cp.getClassInfo(i);
+                    if (name.startsWith("[")) {
+                        addDescriptor(info.refs, name.replace('.', '/'));
+                    } else {
+                        info.refs.add(name);
+                    }
+                } else if (tag == ConstPool.CONST_Utf8) {
+                    // descriptors, signatures and annotation types
+                    addDescriptor(info.refs, cp.getUtf8Info(i));
+                } else {
+                    String literal = getConstant(cp, i);
+                    if (literal != null) {
+                        info.literals.add(literal);
+                    }
+                }
+            }
+            info.refs.remove(cf.getName());
+            addAnnotations(info.annotations, cf.getAttributes());
+            for (FieldInfo field : cf.getFields()) {
+                addAnnotations(info.annotations, field.getAttributes());
+                if (field.getConstantValue() != 0) {
+                    String constant = getConstant(cp, field.getConstantValue());
+                    if (constant != null) {
+                        info.constants.add(constant);
+                    }
+                }
+            }
+            for (MethodInfo method : cf.getMethods()) {
+                addAnnotations(info.annotations, method.getAttributes());
+            }
+            // the constants declared by the class are also in its constant pool
+            info.literals.removeAll(info.constants);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Unable to parse class file", e);
+        }
+        return info;
+    }
+
+    static String getConstant(ConstPool cp, int index) {
+        switch (cp.getTag(index)) {
+            case ConstPool.CONST_String:
+                String value = cp.getStringInfo(index);
+                // ignore trivial strings, which would match too many constants
+                return value.length() > 1 ? "S" + value : null;
+            case ConstPool.CONST_Integer:
+                return "I" + cp.getIntegerInfo(index);
+            case ConstPool.CONST_Long:
+                return "J" + cp.getLongInfo(index);
+            case ConstPool.CONST_Float:
+                return "F" + cp.getFloatInfo(index);
+            case ConstPool.CONST_Double:
+                return "D" + cp.getDoubleInfo(index);
+            default:
+                return null;
+        }
+    }
+
+    static void addAnnotations(Set<String> annotations, List<AttributeInfo> attributes) {
+        for (AttributeInfo attribute : attributes) {
+            if (attribute instanceof AnnotationsAttribute) {
+                for (Annotation annotation : ((AnnotationsAttribute) attribute).getAnnotations()) {
+                    annotations.add(annotation.getTypeName());
+                }
+            } else if (attribute instanceof ParameterAnnotationsAttribute) {
+                for (Annotation[] params : ((ParameterAnnotationsAttribute) attribute).getAnnotations()) {
+                    for (Annotation annotation : params) {
+                        annotations.add(annotation.getTypeName());
+                    }
+                }
+            }
+        }
+    }
+
+    static void addDescriptor(Set<String> refs, String descriptor) {
+        Matcher matcher = DESCRIPTOR.matcher(descriptor);
+        while (matcher.find()) {
+            refs.add(matcher.group(1).replace('/', '.'));
+        }
+    }
+
+    Map<String, Entry> getCache() {
+        if (cache == null) {
+            cache = new HashMap<>();
+            if (cacheFile != null && Files.isRegularFile(cacheFile)) {
+                try {
+                    Type type = new TypeToken<Map<String, Entry>>() { }.getType();
+                    Map<String, Entry> map = gson.fromJson(Files.readString(cacheFile), type);
+                    if (map != null) {
+                        cache.putAll(map);
+                    }
+                } catch (IOException | JsonParseException e) {
+                    LOGGER.debug("Unable to read cache " + cacheFile, e);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Writes the cache file if it has been modified.
+     */
+    public synchronized void save() throws IOException {
+        if (dirty && cacheFile != null) {
+            Files.createDirectories(cacheFile.getParent());
+            Path tmp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+            Files.writeString(tmp, gson.toJson(new TreeMap<>(cache)));
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        }
+    }
+
+}
@@ -15,11 +15,12 @@
  */
 package org.jboss.fuse.tia.reports;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Objects;
 import java.util.Set;
 
-public interface Storage {
+public interface Storage extends Closeable {
 
     State getState() throws IOException;
 
@@ -27,15 +28,28 @@ public interface Storage {
 
     void writeNotes(String notes) throws IOException;
 
+    @Override
+    default void close() throws IOException {
+    }
+
     class State {
         public final String note;
         public final Set<String> modified;
         public final Set<String> uncommitted;
+        // if true, the note applies to the working tree and the modified files
+        // include the uncommitted ones, so that reports can be written even if
+        // the working tree is dirty
+        public final boolean overlay;
 
         public State(String note, Set<String> modified, Set<String> uncommitted) {
+            this(note, modified, uncommitted, false);
+        }
+
+        public State(String note, Set<String> modified, Set<String> uncommitted, boolean overlay) {
             this.note = note;
             this.modified = modified;
             this.uncommitted = uncommitted;
+            this.overlay = overlay;
         }
 
         @Override
@@ -43,14 +57,15 @@ public interface Storage {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             State state = (State) o;
-            return Objects.equals(note, state.note) &&
+            return overlay == state.overlay &&
+                    Objects.equals(note, state.note) &&
                     Objects.equals(modified, state.modified) &&
                     Objects.equals(uncommitted, state.uncommitted);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(note, modified, uncommitted);
+            return Objects.hash(note, modified, uncommitted, overlay);
         }
 
         @Override
@@ -59,6 +74,7 @@ public interface Storage {
                     "note='" + note + '\'' +
                     ", modified=" + modified +
                     ", uncommitted=" + uncommitted +
+                    ", overlay=" + overlay +
                     '}';
         }
     }
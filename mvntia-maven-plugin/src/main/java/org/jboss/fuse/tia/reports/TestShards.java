@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits tests into shards of similar total duration, using the longest
+ * processing time first heuristic: the tests are sorted by decreasing
+ * duration and each one is assigned to the least loaded shard.
+ */
+public final class TestShards {
+
+    private TestShards() {
+    }
+
+    /**
+     * Assigns the given tests to the shards.
+     *
+     * @param count the number of shards
+     * @param durations the expected duration of each test
+     * @return the tests of each shard
+     */
+    public static List<List<String>> split(int count, Map<String, Long> durations) {
+        if (count < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive: " + count);
+        }
+        long[] loads = new long[count];
+        List<List<String>> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<>());
+        }
+        durations.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> {
+                    int shard = 0;
+                    for (int i = 1; i < count; i++) {
+                        if (loads[i] < loads[shard]) {
+                            shard = i;
+                        }
+                    }
+                    loads[shard] += e.getValue();
+                    shards.get(shard).add(e.getKey());
+                });
+        shards.forEach(s -> s.sort(Comparator.naturalOrder()));
+        return shards;
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Statistics about the executions of a test class, stored in its referenced
+ * classes using entries prefixed with {@link #PREFIX}: the duration of the
+ * last execution, a score counting the recent failures, which is increased
+ * when the test fails and decreased when it succeeds, a marker telling
+ * that the last execution failed, and the time of the last execution, used
+ * to re-run the tests skipped for the longest time.  A test whose last
+ * execution failed is never skipped.
+ */
+public final class TestStats {
+
+    /**
+     * Prefix of the entries holding statistics in the referenced classes of a test.
+     */
+    public static final String PREFIX = "%";
+
+    static final String DURATION = PREFIX + "t=";
+    static final String FAILURES = PREFIX + "f=";
+    static final String FAILED = PREFIX + "failed";
+    static final String VERIFIED = PREFIX + "v=";
+    static final int MAX_FAILURES = 9;
+
+    /**
+     * Orders the tests so that the ones most likely to fail, then the quickest, come first.
+     */
+    public static final Comparator<TestStats> PRIORITY = Comparator.<TestStats, Boolean>comparing(s -> !s.failed)
+            .thenComparing(Comparator.comparingInt((TestStats s) -> s.failures).reversed())
+            .thenComparingLong(s -> s.duration < 0 ? Long.MAX_VALUE : s.duration);
+
+    public final long duration;
+    public final int failures;
+    public final boolean failed;
+    /**
+     * Day of the last execution, in days since the epoch, or <code>0</code> if unknown.
+     * It is only recorded when a time budget is used to refresh the reports.
+     */
+    public final long verified;
+
+    TestStats(long duration, int failures, boolean failed, long verified) {
+        this.duration = duration;
+        this.failures = failures;
+        this.failed = failed;
+        this.verified = verified;
+    }
+
+    /**
+     * Reads the statistics of a test from its referenced classes.
+     */
+    public static TestStats of(Collection<String> classes) {
+        long duration = -1;
+        int failures = 0;
+        boolean failed = false;
+        long verified = 0;
+        for (String clazz : classes) {
+            if (clazz.startsWith(DURATION)) {
+                duration = Math.max(duration, parse(clazz.substring(DURATION.length())));
+            } else if (clazz.startsWith(FAILURES)) {
+                failures = (int) Math.max(failures, parse(clazz.substring(FAILURES.length())));
+            } else if (clazz.equals(FAILED)) {
+                failed = true;
+            } else if (clazz.startsWith(VERIFIED)) {
+                verified = Math.max(verified, parse(clazz.substring(VERIFIED.length())));
+            }
+        }
+        return new TestStats(duration, failures, failed, verified);
+    }
+
+    /**
+     * Computes the entries recording a new execution of a test.
+     *
+     * @param previous the statistics of the previous executions
+     * @param duration the duration of the execution, in milliseconds
+     * @param success  whether the execution succeeded
+     * @param day      the day of the execution, in days since the epoch, or <code>0</code>
+     *                 to keep the previous one, so that the reports do not change daily
+     */
+    public static Set<String> record(TestStats previous, long duration, boolean success, long day) {
+        int failures = previous != null ? previous.failures : 0;
+        failures = success ? Math.max(0, failures - 1) : Math.min(MAX_FAILURES, failures + 1);
+        Set<String> entries = new TreeSet<>();
+        entries.add(DURATION + round(duration));
+        if (failures > 0) {
+            entries.add(FAILURES + failures);
+        }
+        if (!success) {
+            entries.add(FAILED);
+        }
+        long verified = day > 0 ? day : previous != null ? previous.verified : 0;
+        if (verified > 0) {
+            entries.add(VERIFIED + verified);
+        }
+        return entries;
+    }
+
+    public static boolean isStat(String clazz) {
+        return clazz.startsWith(PREFIX);
+    }
+
+    public static boolean hasStats(Collection<String> classes) {
+        return classes.stream().anyMatch(TestStats::isStat);
+    }
+
+    public static boolean hasFailed(Collection<String> classes) {
+        return classes.contains(FAILED);
+    }
+
+    /**
+     * Rounds a duration to two significant digits, so that the reports do not
+     * change on each execution.
+     */
+    static long round(long duration) {
+        long scale = 1;
+        while (duration >= 100 * scale) {
+            scale *= 10;
+        }
+        return Math.round((double) duration / scale) * scale;
+    }
+
+    private static long parse(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TestStats{duration=" + duration + ", failures=" + failures + ", failed=" + failed + ", verified=" + verified + "}";
+    }
+
+}
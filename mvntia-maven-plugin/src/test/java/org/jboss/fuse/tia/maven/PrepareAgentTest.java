@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PrepareAgentTest {
+
+    @Test
+    public void testForkReused() {
+        MavenProject project = project(null);
+        // forks are reused by default
+        assertTrue(PrepareAgent.isForkReused(project, null));
+        assertFalse(PrepareAgent.isForkReused(project, "false"));
+        project.getProperties().setProperty("reuseForks", "false");
+        assertFalse(PrepareAgent.isForkReused(project, null));
+
+        assertTrue(PrepareAgent.isForkReused(project(surefire("true", null)), "false"));
+        assertFalse(PrepareAgent.isForkReused(project(surefire("false", null)), null));
+        // the configuration of the test execution comes first
+        assertFalse(PrepareAgent.isForkReused(project(surefire("true", "false")), null));
+    }
+
+    private Plugin surefire(String reuseForks, String executionReuseForks) {
+        Plugin surefire = new Plugin();
+        surefire.setGroupId("org.apache.maven.plugins");
+        surefire.setArtifactId("maven-surefire-plugin");
+        surefire.setConfiguration(configuration(reuseForks));
+        if (executionReuseForks != null) {
+            PluginExecution execution = new PluginExecution();
+            execution.setId("default-test");
+            execution.setConfiguration(configuration(executionReuseForks));
+            surefire.addExecution(execution);
+        }
+        return surefire;
+    }
+
+    private MavenProject project(Plugin plugin) {
+        Model model = new Model();
+        model.setBuild(new Build());
+        if (plugin != null) {
+            model.getBuild().addPlugin(plugin);
+        }
+        return new MavenProject(model);
+    }
+
+    private Xpp3Dom configuration(String reuseForks) {
+        Xpp3Dom configuration = new Xpp3Dom("configuration");
+        Xpp3Dom child = new Xpp3Dom("reuseForks");
+        child.setValue(reuseForks);
+        configuration.addChild(child);
+        return configuration;
+    }
+
+}
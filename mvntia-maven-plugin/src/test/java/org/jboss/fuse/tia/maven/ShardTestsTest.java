@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.maven;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ShardTestsTest {
+
+    @Test
+    public void testFindTests() throws Exception {
+        Path dir = Files.createTempDirectory("mvntia-classes-");
+        Path pkg = Files.createDirectories(dir.resolve("org/foo"));
+        for (String name : List.of("MyTest", "MyTest$Inner", "TestMy", "MyTests", "MyTestCase", "MyHelper", "MyIT")) {
+            Files.writeString(pkg.resolve(name + ".class"), name);
+        }
+        Files.writeString(pkg.resolve("MyTest.txt"), "resource");
+
+        assertEquals(Set.of("org.foo.MyTest", "org.foo.TestMy", "org.foo.MyTests", "org.foo.MyTestCase"),
+                ShardTests.findTests(dir, "Test*,*Test,*Tests,*TestCase"));
+        assertEquals(Set.of("org.foo.MyIT"), ShardTests.findTests(dir, " *IT , "));
+        assertEquals(Set.of(), ShardTests.findTests(dir.resolve("missing"), "*Test"));
+    }
+
+    @Test
+    public void testSplit() {
+        Map<String, Long> durations = Map.of("A", 7L, "B", 5L, "C", 4L, "D", 3L, "E", 3L);
+        List<List<String>> split = ShardTests.split("org.foo:module1", 2, durations);
+        assertEquals(Set.of(List.of("A", "D"), List.of("B", "C", "E")), Set.copyOf(split));
+        // the split of a module does not depend on the modules split before
+        ShardTests.split("org.foo:module2", 2, Map.of("X", 100L));
+        assertEquals(split, ShardTests.split("org.foo:module1", 2, durations));
+    }
+
+    @Test
+    public void testWriteShards() throws Exception {
+        Path dir = Files.createTempDirectory("mvntia-shards-").resolve("shards");
+        ShardTests.writeShards(dir, List.of(List.of("org.foo.ATest", "org.foo.BTest"), List.of()));
+
+        assertEquals(List.of("org/foo/ATest.java", "org/foo/BTest.java"), Files.readAllLines(dir.resolve("shard-1.txt")));
+        // an empty include file would run all the tests
+        assertEquals(List.of(ShardTests.NO_TEST), Files.readAllLines(dir.resolve("shard-2.txt")));
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChangeTrackerTest {
+
+    @Test
+    public void testStatusWatched() throws IOException, GitAPIException, InterruptedException {
+        Path local = Files.createTempDirectory("mvntia-");
+        try (ChangeTracker tracker = new ChangeTracker(local)) {
+            GitStorage storage = new GitStorage(local.toString(), GitStorage.GIT_NOTES_REF, tracker);
+            assertNull(storage.getState());
+
+            Git git = Git.init().setDirectory(local.toFile()).call();
+            Path readme = local.resolve("readme.txt");
+            Files.writeString(readme, "Readme file");
+            git.add().addFilepattern("readme.txt").call();
+            git.commit().setMessage("initial commit").call();
+            assertState(new Storage.State(null, null, Set.of()), storage);
+
+            Files.writeString(readme, "Improved readme file");
+            assertState(new Storage.State(null, null, Set.of("readme.txt")), storage);
+
+            Path src = local.resolve("src/org/foo/MyClass.java");
+            Files.createDirectories(src.getParent());
+            Files.writeString(src, "class org.foo.MyClass { }");
+            assertState(new Storage.State(null, null, Set.of("readme.txt", "src/org/foo/MyClass.java")), storage);
+
+            Files.writeString(readme, "Readme file");
+            assertState(new Storage.State(null, null, Set.of("src/org/foo/MyClass.java")), storage);
+
+            git.add().addFilepattern("src").call();
+            git.commit().setMessage("second commit").call();
+            assertState(new Storage.State(null, null, Set.of()), storage);
+        }
+    }
+
+    private void assertState(Storage.State expected, Storage storage) throws IOException, InterruptedException {
+        // file system events are delivered asynchronously
+        Storage.State state = storage.getState();
+        for (int i = 0; i < 50 && !expected.equals(state); i++) {
+            Thread.sleep(100);
+            state = storage.getState();
+        }
+        assertEquals(expected, state);
+    }
+
+    @Test
+    public void testStatusUnwatched() throws IOException, GitAPIException {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        Path readme = local.resolve("readme.txt");
+        Files.writeString(readme, "Readme file");
+        git.add().addFilepattern("readme.txt").call();
+        git.commit().setMessage("initial commit").call();
+
+        // for example when the limit of inotify watches is reached
+        try (ChangeTracker tracker = new ChangeTracker(local) {
+            @Override
+            void register(Path dir) throws IOException {
+                throw new IOException("User limit of inotify watches reached");
+            }
+        }) {
+            GitStorage storage = new GitStorage(local.toString(), GitStorage.GIT_NOTES_REF, tracker);
+            assertEquals(new Storage.State(null, null, Set.of()), storage.getState());
+            assertTrue(tracker.unwatched);
+
+            // a full status is computed each time
+            Files.writeString(readme, "Improved readme file");
+            assertEquals(new Storage.State(null, null, Set.of("readme.txt")), storage.getState());
+            Files.writeString(readme, "Readme file");
+            assertEquals(new Storage.State(null, null, Set.of()), storage.getState());
+        }
+    }
+}
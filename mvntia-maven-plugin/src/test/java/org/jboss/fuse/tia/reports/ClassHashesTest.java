@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClassHashesTest {
+
+    @Test
+    public void testClassHashes() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        Path classes = Files.createTempDirectory("mvntia-classes-");
+        Path pkg = Files.createDirectories(classes.resolve("org/foo"));
+        Files.writeString(pkg.resolve("MyClassTest.class"), "test");
+        Files.writeString(pkg.resolve("MyClass.class"), "class");
+        Files.writeString(pkg.resolve("MyClass$1.class"), "inner");
+        Files.writeString(pkg.resolve("MyClassHelper.class"), "helper");
+        Path src = Files.createDirectories(local.resolve("src/org/foo")).resolve("MyClass.java");
+        Files.writeString(src, "class MyClass { }");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial commit").call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.setClassPath("project1", List.of(classes.toFile()));
+            client.disabledTests("project1", "digest");
+            client.addReport("project1", "org.foo.MyClassTest", Set.of("org.foo.MyClass"));
+            client.writeReport("project1", "digest");
+            assertNotNull(ClassHashes.getHash(client.snapshot.reports.get("project1").get("org.foo.MyClassTest")));
+
+            // a comment only change, the test is impacted but the bytecode is the same
+            Files.writeString(src, "/* comment */ class MyClass { }");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("comment").call();
+            client.initialize();
+            assertEquals(Set.of("org.foo.MyClassTest"), client.disabledTests("project1", "digest"));
+            // the report is kept
+            client.writeReport("project1", "digest");
+            client.flush();
+            assertTrue(storage.getState().note.contains("org.foo.MyClassTest"));
+
+            // the bytecode of an inner class changes
+            Files.writeString(pkg.resolve("MyClass$1.class"), "inner2");
+            Files.writeString(src, "class MyClass { Runnable r = () -> { }; }");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("inner").call();
+            client.initialize();
+            assertEquals(Set.of(), client.disabledTests("project1", "digest"));
+
+            // without class path, the hashes are not used
+            client.setClassPath("project1", null);
+            Files.writeString(pkg.resolve("MyClass$1.class"), "inner");
+            client.initialize();
+            assertEquals(Set.of(), client.disabledTests("project1", "digest"));
+        }
+    }
+
+    @Test
+    public void testClassHashesResources() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        Path classes = Files.createTempDirectory("mvntia-classes-");
+        Path pkg = Files.createDirectories(classes.resolve("org/foo"));
+        Files.writeString(pkg.resolve("MyClassTest.class"), "test");
+        Files.writeString(pkg.resolve("MyClass.class"), "class");
+        Path resource = Files.createDirectories(local.resolve("src/test/resources/org/foo")).resolve("data.txt");
+        Files.writeString(resource, "data");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial commit").call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.setClassPath("project1", List.of(classes.toFile()));
+            client.disabledTests("project1", "digest");
+            client.addReport("project1", "org.foo.MyClassTest", Set.of("org.foo.MyClass", "/org/foo/data.txt"));
+            client.writeReport("project1", "digest");
+
+            // the bytecode is the same, but the hashes do not cover the resources
+            Files.writeString(resource, "data2");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("resource").call();
+            client.initialize();
+            assertEquals(Set.of(), client.disabledTests("project1", "digest"));
+        }
+    }
+
+    @Test
+    public void testClassHashesMultiModule() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        Path classes1 = Files.createTempDirectory("mvntia-classes-");
+        Path classes2 = Files.createTempDirectory("mvntia-classes-");
+        Path pkg1 = Files.createDirectories(classes1.resolve("org/foo"));
+        Path pkg2 = Files.createDirectories(classes2.resolve("org/foo"));
+        Files.writeString(pkg1.resolve("MyClassTest.class"), "test1");
+        Files.writeString(pkg1.resolve("MyClass.class"), "class");
+        Files.writeString(pkg2.resolve("MyOtherTest.class"), "test2");
+        Files.writeString(pkg2.resolve("MyClass.class"), "class");
+        Path src = Files.createDirectories(local.resolve("src/org/foo")).resolve("MyClass.java");
+        Files.writeString(src, "class MyClass { }");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial commit").call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.setClassPath("project1", List.of(classes1.toFile()));
+            client.setClassPath("project2", List.of(classes2.toFile()));
+            client.disabledTests("project1", "digest");
+            client.addReport("project1", "org.foo.MyClassTest", Set.of("org.foo.MyClass"));
+            client.writeReport("project1", "digest");
+            client.disabledTests("project2", "digest");
+            client.addReport("project2", "org.foo.MyOtherTest", Set.of("org.foo.MyClass"));
+            client.writeReport("project2", "digest");
+
+            // a comment only change impacting the tests of both projects
+            Files.writeString(src, "/* comment */ class MyClass { }");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("comment").call();
+            client.initialize();
+            assertEquals(Set.of("org.foo.MyClassTest"), client.disabledTests("project1", "digest"));
+            client.writeReport("project1", "digest");
+            // writing the first project keeps the history of the second one
+            assertEquals(Set.of("org.foo.MyOtherTest"), client.disabledTests("project2", "digest"));
+            client.writeReport("project2", "digest");
+            client.flush();
+            String note = storage.getState().note;
+            assertTrue(note.contains("org.foo.MyClassTest"));
+            assertTrue(note.contains("org.foo.MyOtherTest"));
+        }
+    }
+}
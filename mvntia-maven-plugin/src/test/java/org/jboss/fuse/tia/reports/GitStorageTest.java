@@ -18,15 +18,27 @@ package org.jboss.fuse.tia.reports;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.maven.plugin.logging.SystemStreamLog;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class GitStorageTest {
 
@@ -113,5 +125,384 @@ public class GitStorageTest {
         client = new GitClient(storage, new SystemStreamLog());
         assertEquals(Set.of(), client.disabledTests("project", "digest"));
     }
-}
 
+    @Test
+    public void testReinitialize() throws IOException, GitAPIException {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        Path src1 = local.resolve("src/org/foo/MyClass.java");
+        Files.createDirectories(src1.getParent());
+        Files.writeString(src1, "class org.foo.MyClass { }");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial commit").call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            assertEquals(Set.of(), client.disabledTests("project", "digest"));
+            client.addReport("project", "org.foo.MyClassTest", Set.of("org.foo.MyClass"));
+            client.writeReport("project", "digest");
+
+            // same client reused for a new build
+            client.initialize();
+            assertEquals(Set.of("org.foo.MyClassTest"), client.disabledTests("project", "digest"));
+
+            Files.writeString(src1, "class org.foo.MyClass { foo }");
+            client.initialize();
+            assertEquals(Set.of(), client.disabledTests("project", "digest"));
+
+            Files.writeString(src1, "class org.foo.MyClass { }");
+            client.initialize();
+            assertEquals(Set.of("org.foo.MyClassTest"), client.disabledTests("project", "digest"));
+
+            // reports received while initializing in the background are kept
+            client.initializeAsync();
+            client.addReport("project", "org.foo.MyOtherTest", Set.of("org.foo.MyClass"));
+            client.writeReport("project", "digest");
+            client.initialize();
+            assertEquals(Set.of("org.foo.MyClassTest", "org.foo.MyOtherTest"), client.disabledTests("project", "digest"));
+        }
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        Files.writeString(local.resolve("readme.txt"), "Readme file");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial commit").call();
+
+        int nbProjects = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(nbProjects);
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < nbProjects; i++) {
+                String project = "project" + i;
+                futures.add(executor.submit(() -> {
+                    client.disabledTests(project, "digest");
+                    client.addReport(project, "org.foo.MyClassTest", Set.of("org.foo.MyClass"));
+                    client.writeReport(project, "digest");
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            client.initialize();
+            for (int i = 0; i < nbProjects; i++) {
+                assertEquals(Set.of("org.foo.MyClassTest"), client.disabledTests("project" + i, "digest"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeferredWrites() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        Files.writeString(local.resolve("readme.txt"), "Readme file");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial commit").call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.setFlushDelay(TimeUnit.HOURS.toMillis(1));
+            client.disabledTests("project1", "digest");
+            client.addReport("project1", "org.foo.MyClassTest", Set.of("org.foo.MyClass"));
+            client.writeReport("project1", "digest");
+            client.addReport("project2", "org.foo.MyOtherTest", Set.of("org.foo.MyClass"));
+            client.writeReport("project2", "digest");
+            assertNull(storage.getState().note);
+
+            client.flush();
+            assertEquals("{\"digests\":{\"project1\":\"digest\",\"project2\":\"digest\"},"
+                    + "\"project1\":{\"org.foo.MyClassTest\":[\"org.foo.MyClass\"]},"
+                    + "\"project2\":{\"org.foo.MyOtherTest\":[\"org.foo.MyClass\"]}}", storage.getState().note);
+            assertEquals(1, countNotesCommits(git));
+
+            // same content, no new notes commit
+            client.addReport("project1", "org.foo.MyClassTest", Set.of("org.foo.MyClass"));
+            client.writeReport("project1", "digest");
+            client.flush();
+            assertEquals(1, countNotesCommits(git));
+        }
+    }
+
+    private int countNotesCommits(Git git) throws IOException, GitAPIException {
+        int count = 0;
+        for (RevCommit ignored : git.log().add(git.getRepository().resolve(GitStorage.GIT_NOTES_REF)).call()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testDeltaNotes() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            storage.setMaxChainLength(2);
+            RevCommit c1 = TestUtils.commit(git, local, "1");
+            String full1 = TestUtils.notes("a", "d1", "b", "d2");
+            storage.writeNotes(full1);
+            assertNull(Reports.getBase(TestUtils.readNote(git, c1)));
+
+            RevCommit c2 = TestUtils.commit(git, local, "2");
+            String full2 = TestUtils.notes("a", "d1", "b", "d3");
+            storage.writeNotes(full2);
+            assertEquals(c1.name(), Reports.getBase(TestUtils.readNote(git, c2)));
+            assertEquals(1, Reports.getDepth(TestUtils.readNote(git, c2)));
+            assertEquals(full2, storage.getState().note);
+
+            RevCommit c3 = TestUtils.commit(git, local, "3");
+            String full3 = TestUtils.notes("a", "d4", "b", "d3");
+            storage.writeNotes(full3);
+            assertEquals(2, Reports.getDepth(TestUtils.readNote(git, c3)));
+            assertEquals(full3, storage.getState().note);
+
+            // the chain is too long, a full note is written
+            RevCommit c4 = TestUtils.commit(git, local, "4");
+            storage.writeNotes(full1);
+            assertNull(Reports.getBase(TestUtils.readNote(git, c4)));
+            assertEquals(full1, storage.getState().note);
+
+            // a broken chain is ignored
+            git.notesRemove().setNotesRef(GitStorage.GIT_NOTES_REF).setObjectId(c4).call();
+            git.notesRemove().setNotesRef(GitStorage.GIT_NOTES_REF).setObjectId(c1).call();
+            Storage.State state = storage.getState();
+            assertNull(state.note);
+            assertNull(state.modified);
+        }
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            storage.setMaxChainLength(5);
+            RevCommit c1 = TestUtils.commit(git, local, "1");
+            storage.writeNotes(TestUtils.notes("a", "d1", "b", "d2"));
+            RevCommit c2 = TestUtils.commit(git, local, "2");
+            String full2 = TestUtils.notes("a", "d1", "b", "d3");
+            storage.writeNotes(full2);
+            assertEquals(c1.name(), Reports.getBase(TestUtils.readNote(git, c2)));
+
+            // a commit which becomes unreachable
+            git.checkout().setCreateBranch(true).setName("tmp").call();
+            TestUtils.commit(git, local, "tmp");
+            storage.writeNotes(TestUtils.notes("a", "d5", "b", "d5"));
+            git.checkout().setName("master").call();
+            git.branchDelete().setBranchNames("tmp").setForce(true).call();
+
+            RevCommit c3 = TestUtils.commit(git, local, "3");
+            String full3 = TestUtils.notes("a", "d4", "b", "d3");
+            storage.writeNotes(full3);
+
+            ObjectId notesId = git.getRepository().resolve(GitStorage.GIT_NOTES_REF);
+            NotesPruner.Result result = storage.prune(1, true);
+            assertEquals(4, result.entries);
+            assertEquals(2, result.keptEntries);
+            assertEquals(1, result.unreachable);
+            assertEquals(1, result.old);
+            assertEquals(1, result.materialized);
+            assertEquals(4, result.historyCommits);
+            assertEquals(notesId, git.getRepository().resolve(GitStorage.GIT_NOTES_REF));
+
+            result = storage.prune(1, false);
+            assertEquals(2, result.keptEntries);
+            assertEquals(1, countNotesCommits(git));
+            assertNull(Reports.getBase(TestUtils.readNote(git, c2)));
+            assertEquals(full2, TestUtils.readNote(git, c2));
+            assertEquals(full3, storage.getState().note);
+            assertNull(git.notesShow().setNotesRef(GitStorage.GIT_NOTES_REF).setObjectId(c1).call());
+        }
+    }
+
+    @Test
+    public void testMergeNotes() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        TestUtils.commit(git, local, "1");
+
+        try (GitStorage storage = new GitStorage(local.toString());
+             GitStorage shard = new GitStorage(local.toString(), "refs/notes/shard")) {
+            storage.writeNotes(TestUtils.notes("a", "d1", "b", "d2"));
+            shard.writeNotes(TestUtils.notes("c", "d1", "b", "d2"));
+            storage.mergeNotes("refs/notes/shard");
+
+            Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+            Reports.loadReports(storage.getState().note, reports, new TreeMap<>());
+            assertEquals(Set.of("a", "c"), reports.get("project1").get("Test1"));
+            assertEquals(Set.of("b"), reports.get("project2").get("Test2"));
+            assertEquals(2, git.getRepository().parseCommit(git.getRepository().resolve(GitStorage.GIT_NOTES_REF)).getParentCount());
+
+            storage.mergeReports(List.of(TestUtils.notes("e", "d1", "f", "d3")));
+            reports.clear();
+            Reports.loadReports(storage.getState().note, reports, new TreeMap<>());
+            assertEquals(Set.of("a", "c", "e"), reports.get("project1").get("Test1"));
+            assertEquals(Set.of("b"), reports.get("project2").get("Test2"));
+        }
+    }
+
+    @Test
+    public void testOverlay() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            storage.setOverlay(true);
+            RevCommit c1 = TestUtils.commit(git, local, "1");
+            String full1 = TestUtils.notes("a", "d1", "b", "d2");
+            storage.writeNotes(full1);
+            assertEquals(new Storage.State(full1, Set.of(), Set.of()), storage.getState());
+
+            // reports computed on a dirty tree go to the overlay
+            Files.writeString(local.resolve("readme.txt"), "2");
+            assertEquals(new Storage.State(full1, Set.of("readme.txt"), Set.of("readme.txt"), true), storage.getState());
+            String full2 = TestUtils.notes("a", "d1", "b", "d3");
+            storage.writeNotes(full2);
+            assertEquals(full1, TestUtils.readNote(git, c1));
+            assertEquals(new Storage.State(full2, Set.of(), Set.of("readme.txt"), true), storage.getState());
+
+            // only files modified since are reported
+            Files.writeString(local.resolve("other.txt"), "other");
+            assertEquals(new Storage.State(full2, Set.of("other.txt"), Set.of("other.txt", "readme.txt"), true), storage.getState());
+            Files.delete(local.resolve("other.txt"));
+            assertEquals(new Storage.State(full2, Set.of(), Set.of("readme.txt"), true), storage.getState());
+
+            // the overlay is used when the same content is committed
+            RevCommit c2 = TestUtils.commit(git, local, "2");
+            assertEquals(new Storage.State(full2, Set.of(), Set.of()), storage.getState());
+            // but only promoted when writing the notes
+            assertNull(git.notesShow().setNotesRef(GitStorage.GIT_NOTES_REF).setObjectId(c2).call());
+            assertTrue(Files.exists(storage.getOverlay(git).file));
+            storage.writeNotes(full2);
+            assertFalse(Files.exists(storage.getOverlay(git).file));
+            assertEquals(full2, Reports.resolve(TestUtils.readNote(git, c2), c -> c.equals(c1.name()) ? full1 : null));
+
+            // and discarded when a different content is committed
+            Files.writeString(local.resolve("readme.txt"), "3");
+            storage.getState();
+            storage.writeNotes(TestUtils.notes("a", "d4", "b", "d4"));
+            RevCommit c3 = TestUtils.commit(git, local, "4");
+            assertEquals(new Storage.State(full2, Set.of("readme.txt"), Set.of()), storage.getState());
+            assertNull(git.notesShow().setNotesRef(GitStorage.GIT_NOTES_REF).setObjectId(c3).call());
+        }
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        TestUtils.commit(git, local, "initial");
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.setDependencies("project1", Map.of("/repo/foo.jar", "org.foo:foo:jar", "/repo/bar.jar", "org.foo:bar:jar"));
+            String digest1 = "org.foo:foo:jar:1.0:compile org.foo:bar:jar:1.0:test";
+            assertEquals(Set.of(), client.disabledTests("project1", digest1));
+            client.addReport("project1", "Test1", Set.of("org.foo.MyClass", "@/repo/foo.jar"));
+            client.addReport("project1", "Test2", Set.of("org.foo.MyClass", "@/repo/bar.jar", "@/other.jar"));
+            client.setDependencies("project1", null);
+            client.addReport("project1", "Test3", Set.of("org.foo.MyClass"));
+            client.writeReport("project1", digest1);
+            String note = storage.getState().note;
+            assertTrue(note.contains("@org.foo:bar:jar"));
+            assertFalse(note.contains("other.jar"));
+            assertEquals(Set.of("Test1", "Test2", "Test3"), client.disabledTests("project1", digest1));
+
+            // only the tests using the upgraded dependency, or not tracked, are run
+            String digest2 = "org.foo:foo:jar:1.0:compile org.foo:bar:jar:1.1:test";
+            assertEquals(Set.of("Test1"), client.disabledTests("project1", digest2));
+            client.setDependencies("project1", Map.of("/repo/foo.jar", "org.foo:foo:jar", "/repo/bar.jar", "org.foo:bar:jar"));
+            client.addReport("project1", "Test2", Set.of("org.foo.MyClass", "@/repo/bar.jar"));
+            client.writeReport("project1", digest2);
+            // the report of the test which has not been run is dropped
+            assertEquals(Set.of("Test1", "Test2"), client.disabledTests("project1", digest2));
+
+            // a new dependency does not impact existing tests
+            String digest3 = digest2 + " org.foo:baz:jar:1.0:test";
+            assertEquals(Set.of("Test1", "Test2"), client.disabledTests("project1", digest3));
+        }
+    }
+
+    @Test
+    public void testChildReports() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        TestUtils.commit(git, local, "initial");
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.disabledTests("project1", "digest");
+            // reported by the JVMs started by the tests before they finish
+            client.addChildReport("project1", "Test1", Set.of("org.foo.Server"));
+            client.addChildReport("project1", "Test2", Set.of("org.foo.Server"));
+            client.addReport("project1", "Test1", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test1", 100, true);
+            client.addResult("project1", "Test2", 100, false);
+            // reported after the test finished
+            client.addReport("project1", "Test3", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test3", 100, true);
+            client.addChildReport("project1", "Test3", Set.of("org.foo.Client"));
+            client.writeReport("project1", "digest");
+
+            Map<String, Set<String>> reports = client.loadedReports.get("project1");
+            assertTrue(reports.get("Test1").containsAll(Set.of("org.foo.MyClass", "org.foo.Server")));
+            assertFalse(reports.get("Test2").contains("org.foo.Server"));
+            assertTrue(reports.get("Test3").containsAll(Set.of("org.foo.MyClass", "org.foo.Client")));
+            assertEquals(Map.of(), client.children.getOrDefault("project1", Map.of()));
+        }
+    }
+
+    @Test
+    public void testResources() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        Path resource = Files.createDirectories(local.resolve("module/src/test/resources/data")).resolve("x.json");
+        Files.writeString(resource, "{}");
+        Path file = Files.createDirectories(local.resolve("module/conf")).resolve("app.properties");
+        Files.writeString(file, "a=b");
+        Path src = Files.createDirectories(local.resolve("module/src/main/java/org/foo")).resolve("MyClass.java");
+        Files.writeString(src, "class MyClass { }");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial commit").call();
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.disabledTests("project1", "digest");
+            client.addReport("project1", "org.foo.Test1", Set.of("org.foo.MyClass", "/data/x.json"));
+            client.addReport("project1", "org.foo.Test2", Set.of("/conf/app.properties"));
+            client.writeReport("project1", "digest");
+
+            // a resource read from the class path
+            Files.writeString(resource, "{ }");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("resource").call();
+            client.initialize();
+            assertEquals(Set.of("org.foo.Test2"), client.disabledTests("project1", "digest"));
+            client.addReport("project1", "org.foo.Test1", Set.of("org.foo.MyClass", "/data/x.json"));
+            client.writeReport("project1", "digest");
+
+            // a file of the module
+            Files.writeString(file, "a=c");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("file").call();
+            client.initialize();
+            assertEquals(Set.of("org.foo.Test1"), client.disabledTests("project1", "digest"));
+            client.addReport("project1", "org.foo.Test2", Set.of("/conf/app.properties"));
+            client.writeReport("project1", "digest");
+
+            // resources are not matched against classes
+            Files.writeString(src.resolveSibling("MyClass.txt"), "text");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("text").call();
+            client.initialize();
+            assertEquals(Set.of("org.foo.Test1", "org.foo.Test2"), client.disabledTests("project1", "digest"));
+        }
+    }
+}
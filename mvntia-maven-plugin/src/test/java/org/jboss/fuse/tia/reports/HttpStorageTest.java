@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HttpStorageTest {
+
+    @Test
+    public void testHttpStorage() throws Exception {
+        Map<String, String> notes = new ConcurrentHashMap<>();
+        AtomicInteger fetched = new AtomicInteger();
+        AtomicInteger notModified = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/notes/", exchange -> {
+            String key = exchange.getRequestURI().getPath().substring("/notes/".length());
+            int code;
+            byte[] body = new byte[0];
+            if ("PUT".equals(exchange.getRequestMethod())) {
+                notes.put(key, new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+                code = 204;
+            } else if (!notes.containsKey(key)) {
+                code = 404;
+            } else {
+                String etag = "\"" + Integer.toHexString(notes.get(key).hashCode()) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    code = 304;
+                } else {
+                    fetched.incrementAndGet();
+                    code = 200;
+                    body = notes.get(key).getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            exchange.sendResponseHeaders(code, code == 200 ? body.length : -1);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/notes";
+        try {
+            // reports computed on CI are uploaded
+            Path ci = Files.createTempDirectory("mvntia-");
+            Git git = Git.init().setDirectory(ci.toFile()).call();
+            RevCommit c1 = TestUtils.commit(git, ci, "1");
+            String full1 = TestUtils.notes("a", "d1", "b", "d2");
+            try (HttpStorage storage = new HttpStorage(ci.toString(), GitStorage.GIT_NOTES_REF, null, url, true, null)) {
+                storage.writeNotes(full1);
+            }
+            assertEquals(Set.of(c1.name()), notes.keySet());
+
+            // and reused from a fresh clone without notes
+            Path local = Files.createTempDirectory("mvntia-");
+            Git.cloneRepository().setURI(ci.toUri().toString()).setDirectory(local.toFile()).call();
+            try (HttpStorage storage = new HttpStorage(local.toString(), GitStorage.GIT_NOTES_REF, null, url, false, null)) {
+                assertEquals(full1, storage.getState().note);
+                assertEquals(1, fetched.get());
+            }
+            // the cached note is revalidated
+            try (HttpStorage storage = new HttpStorage(local.toString(), GitStorage.GIT_NOTES_REF, null, url, false, null)) {
+                assertEquals(full1, storage.getState().note);
+                assertEquals(1, fetched.get());
+                assertEquals(1, notModified.get());
+            }
+            // and used when the server is not available
+            server.stop(0);
+            try (HttpStorage storage = new HttpStorage(local.toString(), GitStorage.GIT_NOTES_REF, null, url, false, null)) {
+                assertEquals(full1, storage.getState().note);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournalTest {
+
+    @Test
+    public void testJournal() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+
+        try (JournalStorage storage = new JournalStorage(local.toString(), GitStorage.GIT_NOTES_REF, null)) {
+            storage.setMaxChainLength(5);
+            RevCommit c1 = TestUtils.commit(git, local, "1");
+            String full1 = TestUtils.notes("a", "d1", "b", "d2");
+            storage.writeNotes(full1);
+            assertEquals(full1, storage.getState().note);
+            ObjectId version = storage.journal.getVersion();
+            storage.writeNotes(full1);
+            assertEquals(version, storage.journal.getVersion());
+
+            RevCommit c2 = TestUtils.commit(git, local, "2");
+            String full2 = TestUtils.notes("a", "d1", "b", "d3");
+            storage.writeNotes(full2);
+            assertEquals(full2, storage.getState().note);
+            assertNotEquals(version, storage.journal.getVersion());
+            // nothing has been written to git
+            assertNull(git.getRepository().resolve(GitStorage.GIT_NOTES_REF));
+
+            // another process sees the same journal
+            try (JournalStorage other = new JournalStorage(local.toString(), GitStorage.GIT_NOTES_REF, null)) {
+                assertEquals(full2, other.getState().note);
+            }
+
+            storage.removeNotes();
+            assertEquals(full1, storage.getState().note);
+            storage.writeNotes(full2);
+
+            assertEquals(2, storage.exportNotes());
+            assertEquals(full1, TestUtils.readNote(git, c1));
+            assertEquals(c1.name(), Reports.getBase(TestUtils.readNote(git, c2)));
+            assertEquals(full2, Reports.resolve(TestUtils.readNote(git, c2), c -> c.equals(c1.name()) ? full1 : null));
+        }
+    }
+
+    @Test
+    public void testJournalPrune() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+
+        try (JournalStorage storage = new JournalStorage(local.toString(), GitStorage.GIT_NOTES_REF, null)) {
+            storage.setMaxChainLength(5);
+            RevCommit c1 = TestUtils.commit(git, local, "1");
+            storage.writeNotes(TestUtils.notes("a", "d1", "b", "d2"));
+            RevCommit c2 = TestUtils.commit(git, local, "2");
+            String full2 = TestUtils.notes("a", "d1", "b", "d3");
+            storage.writeNotes(full2);
+            assertEquals(c1.name(), Reports.getBase(storage.journal.read(c2)));
+
+            // a commit which becomes unreachable
+            git.checkout().setCreateBranch(true).setName("tmp").call();
+            RevCommit tmp = TestUtils.commit(git, local, "tmp");
+            storage.writeNotes(TestUtils.notes("a", "d5", "b", "d5"));
+            git.checkout().setName("master").call();
+            git.branchDelete().setBranchNames("tmp").setForce(true).call();
+
+            TestUtils.commit(git, local, "3");
+            String full3 = TestUtils.notes("a", "d4", "b", "d3");
+            storage.writeNotes(full3);
+
+            ObjectId version = storage.journal.getVersion();
+            NotesPruner.Result result = storage.prune(1, true);
+            assertEquals(4, result.entries);
+            assertEquals(2, result.keptEntries);
+            assertEquals(1, result.unreachable);
+            assertEquals(1, result.old);
+            assertEquals(1, result.materialized);
+            assertEquals(version, storage.journal.getVersion());
+
+            result = storage.prune(1, false);
+            assertEquals(2, result.keptEntries);
+            assertEquals(full2, storage.journal.read(c2));
+            assertNull(storage.journal.read(c1));
+            assertNull(storage.journal.read(tmp));
+            assertEquals(full3, storage.getState().note);
+            // the git notes are left untouched
+            assertNull(git.getRepository().resolve(GitStorage.GIT_NOTES_REF));
+        }
+    }
+
+    @Test
+    public void testJournalCompaction() throws Exception {
+        Path file = Files.createTempDirectory("mvntia-").resolve("test.journal");
+        ObjectId c1 = ObjectId.fromString("0123456789012345678901234567890123456789");
+        ObjectId c2 = ObjectId.fromString("9876543210987654321098765432109876543210");
+        try (Journal journal = new Journal(file, 1024)) {
+            for (int i = 0; i < 100; i++) {
+                journal.write(c1, "note " + i);
+            }
+            journal.write(c2, "note");
+            assertTrue(Files.size(file) < 1024);
+            assertEquals("note 99", journal.read(c1));
+            assertEquals("note", journal.read(c2));
+            journal.write(c2, null);
+            assertNull(journal.read(c2));
+            assertEquals(List.of(c1), new ArrayList<>(journal.readAll().keySet()));
+        }
+        // an incomplete record is ignored
+        Files.write(file, new byte[] { 1, 2, 3 }, StandardOpenOption.APPEND);
+        try (Journal journal = new Journal(file)) {
+            assertEquals("note 99", journal.read(c1));
+            journal.write(c2, "note");
+            assertEquals("note", journal.read(c2));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class NormalizedClassHashesTest {
+
+    @Test
+    public void testNormalizedClassHashes() throws Exception {
+        Path classes = Files.createTempDirectory("mvntia-classes-");
+        List<File> classPath = List.of(classes.toFile());
+
+        TestUtils.compile(classes, "public class MyClass {\n    int foo() { return 1; }\n}\n");
+        String raw = new ClassHashes(classPath).hashClass("MyClass");
+        String normalized = new NormalizedClassHashes(classPath).hashClass("MyClass");
+
+        // javadoc and formatting changes only move the line numbers
+        TestUtils.compile(classes, "/**\n * My class.\n */\npublic class MyClass {\n\n    int foo() {\n        return 1;\n    }\n}\n");
+        assertNotEquals(raw, new ClassHashes(classPath).hashClass("MyClass"));
+        assertEquals(normalized, new NormalizedClassHashes(classPath).hashClass("MyClass"));
+
+        // a real change
+        TestUtils.compile(classes, "public class MyClass {\n    int foo() { return 2; }\n}\n");
+        assertNotEquals(normalized, new NormalizedClassHashes(classPath).hashClass("MyClass"));
+
+        // files which are not valid class files are hashed as is
+        Files.writeString(classes.resolve("MyClass.class"), "class");
+        assertEquals(new ClassHashes(classPath).hashClass("MyClass"),
+                new NormalizedClassHashes(classPath).hashClass("MyClass"));
+    }
+}
@@ -20,13 +20,17 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.codehaus.plexus.util.IOUtil;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class ReportsTest {
 
@@ -56,4 +60,90 @@ public class ReportsTest {
         Reports.loadReports(str, e2, new HashMap<>());
         assertEquals(e, e2);
     }
+
+    @Test
+    public void testDelta() throws IOException {
+        Map<String, Map<String, Set<String>>> base = new TreeMap<>();
+        base.put("module1", Map.of("Test1", Set.of("A", "B"), "Test2", Set.of("B")));
+        base.put("module2", Map.of("Test3", Set.of("C")));
+        base.put("module3", Map.of("Test4", Set.of("D")));
+        Map<String, String> baseDigests = Map.of("module1", "d1", "module2", "d2", "module3", "d3");
+
+        Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+        reports.put("module1", Map.of("Test1", Set.of("A", "C")));
+        reports.put("module2", Map.of("Test3", Set.of("C")));
+        reports.put("module4", Map.of("Test5", Set.of("E")));
+        Map<String, String> digests = Map.of("module1", "d1", "module2", "d2bis", "module4", "d4");
+
+        String base1 = "0123456789012345678901234567890123456789";
+        String delta = Reports.writeDelta(base1, 1, base, baseDigests, reports, digests);
+        assertEquals("{\"base\":\"" + base1 + "\",\"depth\":1,"
+                + "\"removed\":{\"module1\":[\"Test2\"],\"module3\":\"*\"},"
+                + "\"digests\":{\"module2\":\"d2bis\",\"module4\":\"d4\"},"
+                + "\"module1\":{\"Test1\":[\"A\",\"C\"]},"
+                + "\"module4\":{\"Test5\":[\"E\"]}}", delta);
+        assertEquals(base1, Reports.getBase(delta));
+        assertEquals(1, Reports.getDepth(delta));
+        assertNull(Reports.getBase(Reports.writeReports(reports, digests)));
+
+        Map<String, Map<String, Set<String>>> applied = new TreeMap<>();
+        Map<String, String> appliedDigests = new TreeMap<>();
+        Reports.loadReports(Reports.writeReports(base, baseDigests), applied, appliedDigests);
+        Reports.applyDelta(delta, applied, appliedDigests);
+        assertEquals(reports, applied);
+        assertEquals(digests, appliedDigests);
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        Map<String, Map<String, Set<String>>> r1 = new TreeMap<>();
+        r1.put("module1", Map.of("Test1", Set.of("A")));
+        r1.put("module2", Map.of("Test3", Set.of("C")));
+        Map<String, Map<String, Set<String>>> r2 = new TreeMap<>();
+        r2.put("module1", Map.of("Test1", Set.of("B"), "Test2", Set.of("B")));
+        r2.put("module2", Map.of("Test4", Set.of("D")));
+        r2.put("module3", Map.of("Test5", Set.of("E")));
+
+        String merged = Reports.merge(
+                Reports.writeReports(r1, Map.of("module1", "d1", "module2", "d2")),
+                Reports.writeReports(r2, Map.of("module1", "d1", "module2", "d2bis", "module3", "d3")));
+        Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+        Map<String, String> digests = new TreeMap<>();
+        Reports.loadReports(merged, reports, digests);
+        assertEquals(Map.of(
+                "module1", Map.of("Test1", Set.of("A", "B"), "Test2", Set.of("B")),
+                "module2", Map.of("Test3", Set.of("C")),
+                "module3", Map.of("Test5", Set.of("E"))), reports);
+        assertEquals(Map.of("module1", "d1", "module2", "d2", "module3", "d3"), digests);
+    }
+
+    @Test
+    public void testMergeHashesAndStats() throws IOException {
+        Map<String, Map<String, Set<String>>> r1 = new TreeMap<>();
+        r1.put("module1", Map.of(
+                "Test1", Set.of("A", "#h1", "@dep", "%t=100", "%f=1", "%v=10"),
+                "Test2", Set.of("A", "#h2", "%t=50")));
+        Map<String, Map<String, Set<String>>> r2 = new TreeMap<>();
+        r2.put("module1", Map.of(
+                "Test1", Set.of("B", "#h3", "%t=200", "%v=20"),
+                "Test2", Set.of("B")));
+
+        String merged = Reports.merge(
+                Reports.writeReports(r1, Map.of("module1", "d1")),
+                Reports.writeReports(r2, Map.of("module1", "d1")));
+        Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+        Reports.loadReports(merged, reports, new TreeMap<>());
+        // only the newest hash and statistics are kept
+        assertEquals(Set.of("A", "B", "#h3", "%t=200", "%v=20"), reports.get("module1").get("Test1"));
+        assertEquals(Set.of("A", "B", "#h2", "%t=50"), reports.get("module1").get("Test2"));
+    }
+
+    @Test
+    public void testShards() {
+        assertEquals(List.of(List.of("A", "D"), List.of("B", "C", "E")),
+                TestShards.split(2, Map.of("A", 7L, "B", 5L, "C", 4L, "D", 3L, "E", 3L)));
+        // each split starts from empty shards
+        assertEquals(List.of(List.of("X"), List.of()), TestShards.split(2, Map.of("X", 2L)));
+        assertThrows(IllegalArgumentException.class, () -> TestShards.split(0, Map.of("X", 2L)));
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StaticDependenciesTest {
+
+    @Test
+    public void testStaticDependencies() throws Exception {
+        Path classes = Files.createTempDirectory("mvntia-classes-");
+        TestUtils.compile(classes, Map.of(
+                "foo/ServiceTest.java", "package foo;\n@Marker public class ServiceTest { void test() { new Service(); } }\n",
+                "foo/Service.java", "package foo;\npublic class Service { Helper helper = new Helper(); }\n",
+                "foo/Helper.java", "package foo;\npublic class Helper { java.util.List<Model>[] models; class Inner { } }\n",
+                "foo/Model.java", "package foo;\npublic class Model { }\n",
+                "foo/Marker.java", "package foo;\npublic @interface Marker { }\n",
+                "foo/Unused.java", "package foo;\npublic class Unused { }\n"));
+        Path cache = Files.createTempDirectory("mvntia-").resolve("static.json");
+        List<File> classPath = List.of(classes.toFile());
+
+        StaticDependencies analyzer = new StaticDependencies(classPath, cache);
+        Set<String> expected = Set.of("foo.Service", "foo.Helper", "foo.Model", "foo.Marker");
+        assertEquals(expected, analyzer.getDependencies("foo.ServiceTest"));
+        analyzer.save();
+        assertTrue(Files.isRegularFile(cache));
+        assertEquals(expected, new StaticDependencies(classPath, cache).getDependencies("foo.ServiceTest"));
+
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        TestUtils.commit(git, local, "initial");
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.setStaticAnalysis("project1", classPath, cache);
+            client.disabledTests("project1", "digest");
+            client.addReport("project1", "foo.ServiceTest", Set.of());
+            client.writeReport("project1", "digest");
+            assertEquals(expected, client.loadedReports.get("project1").get("foo.ServiceTest"));
+        }
+    }
+
+    @Test
+    public void testConstantDependencies() throws Exception {
+        Path classes = Files.createTempDirectory("mvntia-classes-");
+        TestUtils.compile(classes, Map.of(
+                "foo/ClientTest.java", "package foo;\npublic class ClientTest { void test() { new Client().url(); } }\n",
+                "foo/Client.java", "package foo;\n@Marker public class Client {\n"
+                        + "    String url() { return Config.URL; }\n"
+                        + "    int port() { return Config.PORT; }\n"
+                        + "    Runnable max() { return () -> System.out.println(Limits.MAX); }\n}\n",
+                "foo/Config.java", "package foo;\npublic interface Config { String URL = \"http://localhost\"; int PORT = 65000; }\n",
+                "foo/Limits.java", "package foo;\npublic class Limits { public static final long MAX = 1234567890123L; }\n",
+                "foo/Marker.java", "package foo;\npublic @interface Marker { }\n",
+                "foo/Unused.java", "package foo;\npublic class Unused { public static final String NAME = \"unused\"; }\n"));
+        Path cache = Files.createTempDirectory("mvntia-").resolve("static.json");
+        List<File> classPath = List.of(classes.toFile());
+
+        StaticDependencies analyzer = new StaticDependencies(classPath, cache);
+        Set<String> expected = Set.of("foo.Config", "foo.Limits", "foo.Marker");
+        assertEquals(expected, analyzer.getConstantDependencies("foo.ClientTest", Set.of("foo.Client")));
+        analyzer.save();
+        assertEquals(expected, new StaticDependencies(classPath, cache)
+                .getConstantDependencies("foo.ClientTest", Set.of("foo.Client")));
+
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        TestUtils.commit(git, local, "initial");
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            client.setStaticAnalysis("project1", classPath, cache, false, true);
+            client.disabledTests("project1", "digest");
+            client.addReport("project1", "foo.ClientTest", Set.of("foo.Client"));
+            client.writeReport("project1", "digest");
+            assertEquals(Set.of("foo.Client", "foo.Config", "foo.Limits", "foo.Marker"),
+                    client.loadedReports.get("project1").get("foo.ClientTest"));
+        }
+    }
+}
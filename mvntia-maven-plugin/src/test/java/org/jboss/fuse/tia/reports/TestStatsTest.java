@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestStatsTest {
+
+    @Test
+    public void testTestStats() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        TestUtils.commit(git, local, "initial");
+
+        assertEquals(87, TestStats.round(87));
+        assertEquals(1200, TestStats.round(1234));
+        assertEquals(16000, TestStats.round(15678));
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            assertEquals(Set.of(), client.disabledTests("project1", "digest"));
+            client.addReport("project1", "Test1", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test1", 1234, true);
+            client.addReport("project1", "Test2", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test2", 20, true);
+            client.addResult("project1", "Test3", 500, false);
+            client.writeReport("project1", "digest");
+            assertEquals(1200, TestStats.of(client.loadedReports.get("project1").get("Test1")).duration);
+            assertTrue(TestStats.of(client.loadedReports.get("project1").get("Test3")).failed);
+            // the failed test is run again
+            assertEquals(Set.of("Test1", "Test2"), client.disabledTests("project1", "digest"));
+            assertEquals(List.of("Test3", "Test2", "Test1"), client.testOrder("project1"));
+
+            client.addResult("project1", "Test3", 500, false);
+            client.writeReport("project1", "digest");
+            assertEquals(2, TestStats.of(client.loadedReports.get("project1").get("Test3")).failures);
+            client.addReport("project1", "Test3", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test3", 500, true);
+            client.writeReport("project1", "digest");
+            assertEquals(Set.of("Test1", "Test2", "Test3"), client.disabledTests("project1", "digest"));
+            // the test which failed recently still comes first
+            assertEquals(List.of("Test3", "Test2", "Test1"), client.testOrder("project1"));
+            TestStats stats = TestStats.of(client.loadedReports.get("project1").get("Test3"));
+            assertEquals(1, stats.failures);
+            assertFalse(stats.failed);
+        }
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        Path local = Files.createTempDirectory("mvntia-");
+        Git git = Git.init().setDirectory(local.toFile()).call();
+        TestUtils.commit(git, local, "initial");
+
+        try (GitStorage storage = new GitStorage(local.toString())) {
+            GitClient client = new GitClient(storage, new SystemStreamLog());
+            // without budget, the day of the execution is not recorded
+            client.disabledTests("project2", "digest");
+            client.addReport("project2", "Test4", Set.of("org.foo.MyClass"));
+            client.addResult("project2", "Test4", 300, true);
+            client.writeReport("project2", "digest");
+            assertEquals(0, TestStats.of(client.loadedReports.get("project2").get("Test4")).verified);
+
+            client.disabledTests("project1", "digest");
+            client.setBudget("project1", 500);
+            client.addReport("project1", "Test1", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test1", 300, true);
+            client.addReport("project1", "Test2", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test2", 300, true);
+            // a report without statistics has never been verified
+            client.addReport("project1", "Test3", Set.of("org.foo.MyClass"));
+            client.writeReport("project1", "digest");
+            long day = TestStats.of(client.loadedReports.get("project1").get("Test1")).verified;
+            assertEquals(TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis()), day, 1);
+            client.setBudget("project1", 0);
+            assertEquals(Set.of("Test1", "Test2", "Test3"), client.disabledTests("project1", "digest"));
+
+            // the stalest tests fitting in the budget are run
+            client.setBudget("project1", 500);
+            assertEquals(Set.of("Test2"), client.disabledTests("project1", "digest"));
+            client.addReport("project1", "Test1", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test1", 300, true);
+            client.addReport("project1", "Test3", Set.of("org.foo.Other"));
+            client.addResult("project1", "Test3", 100, true);
+            client.writeReport("project1", "digest");
+            // the refreshed report replaces the previous one
+            Set<String> test3 = client.loadedReports.get("project1").get("Test3");
+            assertTrue(test3.contains("org.foo.Other"));
+            assertFalse(test3.contains("org.foo.MyClass"));
+            assertTrue(TestStats.of(test3).verified > 0);
+
+            client.setBudget("project1", 0);
+            assertEquals(Set.of("Test1", "Test2", "Test3"), client.disabledTests("project1", "digest"));
+            // the previous day is kept, so that the reports do not change on each run
+            client.addReport("project1", "Test1", Set.of("org.foo.MyClass"));
+            client.addResult("project1", "Test1", 300, true);
+            client.writeReport("project1", "digest");
+            assertEquals(day, TestStats.of(client.loadedReports.get("project1").get("Test1")).verified);
+        }
+    }
+}
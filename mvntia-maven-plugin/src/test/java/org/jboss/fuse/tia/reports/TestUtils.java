@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.fuse.tia.reports;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.tools.ToolProvider;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.notes.Note;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class TestUtils {
+
+    private TestUtils() {
+    }
+
+    static void compile(Path classes, Map<String, String> sources) throws IOException {
+        Path dir = Files.createTempDirectory("mvntia-src-");
+        List<String> args = new ArrayList<>(List.of("-d", classes.toString()));
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            Path src = dir.resolve(source.getKey());
+            Files.createDirectories(src.getParent());
+            Files.writeString(src, source.getValue());
+            args.add(src.toString());
+        }
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, args.toArray(new String[0])));
+    }
+
+    static void compile(Path classes, String source) throws IOException {
+        Path src = Files.createTempDirectory("mvntia-src-").resolve("MyClass.java");
+        Files.writeString(src, source);
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null,
+                "-g", "-d", classes.toString(), src.toString()));
+    }
+
+    static RevCommit commit(Git git, Path local, String content) throws IOException, GitAPIException {
+        Files.writeString(local.resolve("readme.txt"), content);
+        git.add().addFilepattern(".").call();
+        return git.commit().setMessage("commit " + content).call();
+    }
+
+    static String notes(String test1Class, String digest1, String test2Class, String digest2) throws IOException {
+        Map<String, Map<String, Set<String>>> reports = new TreeMap<>();
+        reports.put("project1", Map.of("Test1", Set.of(test1Class)));
+        reports.put("project2", Map.of("Test2", Set.of(test2Class)));
+        return Reports.writeReports(reports, new TreeMap<>(Map.of("project1", digest1, "project2", digest2)));
+    }
+
+    static String readNote(Git git, RevCommit commit) throws IOException, GitAPIException {
+        Note note = git.notesShow().setNotesRef(GitStorage.GIT_NOTES_REF).setObjectId(commit).call();
+        return new String(git.getRepository().open(note.getData()).getBytes(), StandardCharsets.UTF_8);
+    }
+}